@@ -0,0 +1,102 @@
+package thjread.ripple;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares a JMH CSV result file against a baseline and exits non-zero if any benchmark present
+ * in both got slower by more than the given percentage. Scores are assumed to be times, so
+ * lower is better.
+ *
+ * Usage: BaselineCheck baseline.csv results.csv [tolerancePercent]
+ */
+public class BaselineCheck {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineCheck baseline.csv results.csv [tolerancePercent]");
+            System.exit(2);
+        }
+        if (!new File(args[0]).isFile()) {
+            System.err.println("No baseline at " + args[0] + ": run jmhBaseline first");
+            System.exit(2);
+        }
+        if (!new File(args[1]).isFile()) {
+            System.err.println("No results at " + args[1] + ": run jmh first");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Map<String, Double> baseline = read(args[0]);
+        Map<String, Double> results = read(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, Double> e : results.entrySet()) {
+            Double base = baseline.get(e.getKey());
+            if (base == null) {
+                System.out.println("NEW        " + e.getKey() + " " + e.getValue());
+                continue;
+            }
+            double change = 100*(e.getValue() - base)/base;
+            boolean regressed = change > tolerance;
+            if (regressed) {
+                ++regressions;
+            }
+            System.out.println(String.format("%-10s %s %.3f -> %.3f (%+.1f%%)",
+                    regressed ? "REGRESSED" : "ok", e.getKey(), base, e.getValue(), change));
+        }
+        if (regressions > 0) {
+            System.err.println(regressions + " benchmark(s) regressed by more than " + tolerance + "%");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads benchmark scores keyed by benchmark name, mode and parameter values.
+     */
+    private static Map<String, Double> read(String path) throws IOException {
+        Map<String, Double> scores = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            List<String> header = split(reader.readLine());
+            int score = header.indexOf("Score");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> fields = split(line);
+                StringBuilder key = new StringBuilder(fields.get(0)).append(' ').append(fields.get(1));
+                for (int i=0; i<header.size(); ++i) {
+                    if (header.get(i).startsWith("Param: ")) {
+                        key.append(' ').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+                    }
+                }
+                scores.put(key.toString(), Double.parseDouble(fields.get(score)));
+            }
+        } finally {
+            reader.close();
+        }
+        return scores;
+    }
+
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i=0; i<line.length(); ++i) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
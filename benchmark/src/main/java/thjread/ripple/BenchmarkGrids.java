@@ -0,0 +1,92 @@
+package thjread.ripple;
+
+import java.util.Random;
+
+/**
+ * Shared fixtures for the benchmarks.
+ */
+final class BenchmarkGrids {
+    private BenchmarkGrids() {
+    }
+
+    static int parseX(String size) {
+        return Integer.parseInt(size.substring(0, size.indexOf('x')));
+    }
+
+    static int parseY(String size) {
+        return Integer.parseInt(size.substring(size.indexOf('x')+1));
+    }
+
+    /**
+     * Pixels resembling rasterized text: a band of bright pixels across the middle rows, with
+     * anti-aliased edges.
+     */
+    static PixelArraySource textPixels(int num_x, int num_y) {
+        Random random = new Random(42);
+        int[] pixels = new int[num_x*num_y];
+        for (int y=num_y/3; y<2*num_y/3; ++y) {
+            for (int x=num_x/8; x<7*num_x/8; ++x) {
+                int v = random.nextInt(4) == 0 ? random.nextInt(256) : (random.nextBoolean() ? 255 : 0);
+                pixels[y*num_x + x] = 0xff000000 | (v << 16) | (v << 8) | v;
+            }
+        }
+        return new PixelArraySource(pixels, num_x, num_y);
+    }
+
+    /**
+     * Stands in for font rendering: each character is a solid block three cells wide and a
+     * third of the grid high.
+     */
+    static class BlockRasterizer implements GlyphResponseCache.GlyphRasterizer {
+        @Override
+        public void rasterizeGlyph(char c, float x, float y, FlatGridSim sim, float[] plane) {
+            for (int i=0; i<plane.length; ++i) {
+                plane[i] = 0;
+            }
+            int height = sim.getNumY()/3;
+            for (int gy=(int) y-height; gy<(int) y; ++gy) {
+                for (int gx=(int) x; gx<Math.min((int) x+3, sim.getNumX()); ++gx) {
+                    plane[sim.index(gx, gy)] = c == ':' ? 3 : 10;
+                }
+            }
+        }
+    }
+
+    /**
+     * An atlas of anti-aliased blocks three cells wide and a third of the grid high standing in
+     * for digit glyphs, with narrower blocks for colons.
+     */
+    static GlyphAtlas blockAtlas(int num_y, int phases) {
+        GlyphAtlas atlas = new GlyphAtlas(phases);
+        int blockHeight = num_y/3;
+        for (char c : GlyphAtlas.TIME_CHARS.toCharArray()) {
+            int blockWidth = c == ':' ? 1 : 3;
+            int width = blockWidth + 3;
+            int height = blockHeight + 2;
+            float[][] coverage = new float[phases][width*height];
+            for (int p=0; p<phases; ++p) {
+                float left = 1 + (float) p/phases;
+                for (int y=1; y<height-1; ++y) {
+                    for (int x=0; x<width; ++x) {
+                        coverage[p][y*width + x] = Math.max(0,
+                                Math.min(left + blockWidth, x + 1) - Math.max(left, x));
+                    }
+                }
+            }
+            atlas.put(c, new GlyphAtlas.Glyph(c == ':' ? 2.5f : 4.25f, 0, -blockHeight,
+                    blockWidth, 0, -1, -blockHeight-1, width, height, coverage));
+        }
+        return atlas;
+    }
+
+    /**
+     * Pen positions for text laid out in monospaced cells four wide, centred on the grid.
+     */
+    static float[] layout(String text, int num_x) {
+        float[] xs = new float[text.length()];
+        for (int i=0; i<text.length(); ++i) {
+            xs[i] = num_x/2 - 2*text.length() + 4*i;
+        }
+        return xs;
+    }
+}
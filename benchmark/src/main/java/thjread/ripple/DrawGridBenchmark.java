@@ -0,0 +1,131 @@
+package thjread.ripple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The colour and coordinate arithmetic drawGrid does for every line, with the Canvas calls
+ * replaced by writes into an array, and the whole frame drawn into pixels by
+ * {@link GridRasterizer}, which needs no Canvas calls but the final blit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DrawGridBenchmark {
+    static final int SCREEN_SIZE = 320;
+
+    @Param({"40x20", "80x40", "160x80", "320x160"})
+    public String size;
+
+    private float[][] mGrid;
+    private GridGeometry mGeometry;
+    private float[] mLines;
+    private int[] mColors;
+    private GridLineBatch mBatch;
+    private FlatGridSim mSim;
+    private float[] mPlane;
+    private final FrameStats mStats = new FrameStats();
+    private final GridRasterizer mRasterizer = new GridRasterizer(2);
+
+    @Setup
+    public void setup() {
+        int num_x = BenchmarkGrids.parseX(size);
+        int num_y = BenchmarkGrids.parseY(size);
+        float[][][] record = new float[4000/2/30 + 1][num_y][num_x];
+        GridSim sim = new GridSim();
+        sim.initGrid(num_x, num_y);
+        sim.setRecordInit(record, BenchmarkGrids.textPixels(num_x, num_y));
+        for (int i=2; i<20; ++i) {
+            sim.simulateGrid(record, i, 1f/30);
+        }
+        mGrid = record[19];
+        mGeometry = new GridGeometry();
+        mLines = new float[8*num_x*num_y];
+        mColors = new int[2*num_x*num_y];
+        mSim = new FlatGridSim(num_x, num_y);
+        mPlane = mSim.newPlane();
+        mSim.copyFromGrid(mGrid, mPlane);
+        mBatch = new GridLineBatch(2);
+        mBatch.ensureCapacity(num_x, num_y);
+        mRasterizer.setSize(SCREEN_SIZE, SCREEN_SIZE);
+    }
+
+    /**
+     * Computes every line drawGrid would draw for grid at the given scale.
+     */
+    static int computeLines(GridGeometry g, float[][] grid, float scale, float[] lines, int[] colors) {
+        int num_x = grid[0].length;
+        int num_y = grid.length;
+        g.layout(0, SCREEN_SIZE, SCREEN_SIZE, num_x, num_y);
+        int n = 0;
+        for (int x=0; x<num_x-1; ++x) {
+            for (int y = 0; y < num_y-1; ++y) {
+                colors[n] = GridGeometry.lineColor(grid[y][x], grid[y+1][x], scale);
+                lines[4*n] = g.pointX(x);
+                lines[4*n+1] = g.pointY(y, grid[y][x]);
+                lines[4*n+2] = g.pointX(x);
+                lines[4*n+3] = g.pointY(y+1, grid[y+1][x]);
+                ++n;
+                colors[n] = GridGeometry.lineColor(grid[y][x], grid[y][x+1], scale);
+                lines[4*n] = g.pointX(x);
+                lines[4*n+1] = g.pointY(y, grid[y][x]);
+                lines[4*n+2] = g.pointX(x+1);
+                lines[4*n+3] = g.pointY(y, grid[y][x+1]);
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int drawGridMath() {
+        return computeLines(mGeometry, mGrid, 0.8f, mLines, mColors);
+    }
+
+    /**
+     * The same lines sorted into colour buckets for drawLines.
+     */
+    @Benchmark
+    public int batchedLines() {
+        mGeometry.layout(0, SCREEN_SIZE, SCREEN_SIZE, mGrid[0].length, mGrid.length);
+        mBatch.build(mGeometry, mSim, mPlane, 0.8f);
+        return mBatch.getNumLines();
+    }
+
+    /**
+     * batchedLines timed into {@link FrameStats} as onDraw does, for the cost of instrumentation.
+     */
+    @Benchmark
+    public int batchedLinesWithStats() {
+        long start = mStats.begin();
+        mGeometry.layout(0, SCREEN_SIZE, SCREEN_SIZE, mGrid[0].length, mGrid.length);
+        mBatch.build(mGeometry, mSim, mPlane, 0.8f);
+        mStats.end(FrameStats.PHASE_DRAW_GRID, start);
+        mStats.recordSteps(1);
+        return mBatch.getNumLines();
+    }
+
+    /**
+     * The same frame rasterized into a screen-sized pixel buffer, background included.
+     */
+    @Benchmark
+    public int[] rasterized() {
+        mGeometry.layout(0, SCREEN_SIZE, SCREEN_SIZE, mGrid[0].length, mGrid.length);
+        mRasterizer.draw(mGeometry, mSim, mPlane, 0.8f, 0xff000000);
+        return mRasterizer.getPixels();
+    }
+}
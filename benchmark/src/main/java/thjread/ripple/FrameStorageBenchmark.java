@@ -0,0 +1,84 @@
+package thjread.ripple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preparing and playing back a ripple with every frame stored as floats against quantized
+ * frames. "q16" and "q8" store every frame whole at 16 and 8 bits a cell; "q16d" and "q8d" code
+ * the changes between whole frames every 8. Playback reads the frames onDraw shows over one
+ * ripple, backwards to the text and forwards again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameStorageBenchmark {
+    private static final int RIPPLE_TIME = 4000;
+    private static final int FRAME_MS = 50;
+    private static final int LENGTH = RIPPLE_TIME/2/30 + 1;
+
+    @Param({"40x20", "80x40"})
+    public String size;
+
+    @Param({"float", "q16", "q16d", "q8", "q8d"})
+    public String storage;
+
+    private FrameSequence mSequence;
+    private float[] mHeights;
+
+    @Setup
+    public void setup() {
+        int num_x = BenchmarkGrids.parseX(size);
+        int num_y = BenchmarkGrids.parseY(size);
+        FlatGridSim sim = new FlatGridSim(num_x, num_y);
+        if (storage.equals("float")) {
+            mSequence = new RippleSequence(sim, LENGTH);
+        } else {
+            int bits = storage.startsWith("q16") ? 16 : 8;
+            mSequence = new QuantizedSequence(sim, LENGTH, bits, storage.endsWith("d") ? 8 : 0);
+        }
+        GridSim gridSim = new GridSim();
+        gridSim.initGrid(num_x, num_y);
+        float[][][] record = new float[2][num_y][num_x];
+        gridSim.setRecordInit(record, BenchmarkGrids.textPixels(num_x, num_y));
+        mHeights = sim.newPlane();
+        sim.copyFromGrid(record[0], mHeights);
+        produce();
+    }
+
+    /**
+     * The work the producer does for each ripple.
+     */
+    @Benchmark
+    public FrameSequence produce() {
+        System.arraycopy(mHeights, 0, mSequence.getInitial(), 0, mHeights.length);
+        mSequence.start(null, 1f/30);
+        mSequence.precompute();
+        return mSequence;
+    }
+
+    @Benchmark
+    public float playback() {
+        float sum = 0;
+        for (int frame=0; frame<RIPPLE_TIME; frame += FRAME_MS) {
+            int index = frame <= RIPPLE_TIME/2 ? (RIPPLE_TIME/2 - frame)*30/1000
+                    : (frame - RIPPLE_TIME/2)*30/1000;
+            sum += mSequence.getFrame(index)[mSequence.getSim().index(0, 0)];
+        }
+        return sum;
+    }
+}
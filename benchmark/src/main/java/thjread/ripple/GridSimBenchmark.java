@@ -0,0 +1,126 @@
+package thjread.ripple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single simulation step and of loading the initial heights from a bitmap.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GridSimBenchmark {
+    @Param({"40x20", "80x40", "160x80", "320x160"})
+    public String size;
+
+    private GridSim mGridSim;
+    private FlatGridSim mFlat;
+    private PixelArraySource mPixels;
+    private float[][][] mRecord;
+    private float[] mOld;
+    private float[] mHere;
+    private int mIndex;
+    private SpectralGridSim mSpectral;
+    private float[] mFrame;
+    private int mFrameIndex;
+    private AtlasText mAtlasText;
+    private final TimeText mTime = new TimeText(true);
+
+    @Setup
+    public void setup() {
+        int num_x = BenchmarkGrids.parseX(size);
+        int num_y = BenchmarkGrids.parseY(size);
+        mGridSim = new GridSim();
+        mGridSim.initGrid(num_x, num_y);
+        mFlat = new FlatGridSim(num_x, num_y);
+        mPixels = BenchmarkGrids.textPixels(num_x, num_y);
+        mRecord = new float[4000/2/30 + 1][num_y][num_x];
+        mGridSim.setRecordInit(mRecord, mPixels);
+        mOld = mFlat.newPlane();
+        mHere = mFlat.newPlane();
+        mFlat.copyFromGrid(mRecord[0], mOld);
+        mFlat.copyFromGrid(mRecord[1], mHere);
+        mIndex = 2;
+        mSpectral = new SpectralGridSim(num_x, num_y);
+        mSpectral.setInitial(mHere);
+        mSpectral.setDiff(1f/30);
+        mFrame = mSpectral.getSim().newPlane();
+        mAtlasText = new AtlasText(BenchmarkGrids.blockAtlas(num_y, 4), num_x, num_y, 0xffffffff,
+                0xff000000);
+    }
+
+    /**
+     * One frame computed in closed form, at any point in the ripple.
+     */
+    @Benchmark
+    public float[] spectralFrame() {
+        mFrameIndex = (mFrameIndex + 7) % 67;
+        mSpectral.frame(mFrameIndex, mFrame);
+        return mFrame;
+    }
+
+    /**
+     * Transforming a ripple's initial heights for the spectral engine.
+     */
+    @Benchmark
+    public SpectralGridSim spectralSetInitial() {
+        mSpectral.setInitial(mHere);
+        return mSpectral;
+    }
+
+    /**
+     * One step through the float[][][] adapter, walking the record as onDraw does.
+     */
+    @Benchmark
+    public float[][] simulateGrid() {
+        if (mIndex == mRecord.length) {
+            mIndex = 2;
+        }
+        mGridSim.simulateGrid(mRecord, mIndex, 1f/30);
+        return mRecord[mIndex++];
+    }
+
+    /**
+     * One step of the flat kernel without the adapter's copy-out.
+     */
+    @Benchmark
+    public float[] flatStep() {
+        mFlat.step(mOld, mHere, mOld, 1f/30);
+        float[] t = mOld;
+        mOld = mHere;
+        mHere = t;
+        return mHere;
+    }
+
+    /**
+     * Composing a time string's initial heights from glyphs, which replaces drawing it and
+     * reading back the pixels.
+     */
+    @Benchmark
+    public float[] atlasRender() {
+        mFrameIndex = (mFrameIndex + 1) % 43200;
+        mTime.setSecondOfDay(mFrameIndex);
+        mAtlasText.render(mTime.getChars(), mTime.length(), mFlat, mHere);
+        return mHere;
+    }
+
+    @Benchmark
+    public float[][][] setRecordInit() {
+        mGridSim.setRecordInit(mRecord, mPixels);
+        return mRecord;
+    }
+}
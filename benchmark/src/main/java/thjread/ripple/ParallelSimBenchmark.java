@@ -0,0 +1,71 @@
+package thjread.ripple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row-striped parallel steps against the serial kernel at grid sizes up to a watch screen's
+ * resolution. stripes=1 is the serial kernel; stripes=0 uses the count the watch face would pick
+ * for this machine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelSimBenchmark {
+    @Param({"40x20", "160x80", "320x160", "400x400"})
+    public String size;
+
+    @Param({"1", "2", "4", "0"})
+    public int stripes;
+
+    private FlatGridSim mSim;
+    private float[] mOld;
+    private float[] mHere;
+
+    @Setup
+    public void setup() {
+        int num_x = BenchmarkGrids.parseX(size);
+        int num_y = BenchmarkGrids.parseY(size);
+        int n = stripes == 0 ? ParallelGridSim.stripesFor(num_x, num_y) : stripes;
+        mSim = n == 1 ? new FlatGridSim(num_x, num_y) : new ParallelGridSim(num_x, num_y, n);
+        mOld = mSim.newPlane();
+        mHere = mSim.newPlane();
+        GridSim gridSim = new GridSim();
+        gridSim.initGrid(num_x, num_y);
+        float[][][] record = new float[2][num_y][num_x];
+        gridSim.setRecordInit(record, BenchmarkGrids.textPixels(num_x, num_y));
+        mSim.copyFromGrid(record[0], mOld);
+        mSim.copyFromGrid(record[1], mHere);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mSim instanceof ParallelGridSim) {
+            ((ParallelGridSim) mSim).quit();
+        }
+    }
+
+    @Benchmark
+    public float[] step() {
+        mSim.step(mOld, mHere, mOld, 1f/30);
+        float[] t = mOld;
+        mOld = mHere;
+        mHere = t;
+        return mHere;
+    }
+}
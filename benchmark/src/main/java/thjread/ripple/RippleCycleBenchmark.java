@@ -0,0 +1,130 @@
+package thjread.ripple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything onDraw does over one interactive ripple: loading a new record, simulating it as
+ * time advances, and computing the lines of the displayed frame at the 20 fps redraw rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RippleCycleBenchmark {
+    static final int RIPPLE_TIME = 4000;
+    static final int FRAME_MS = 50;
+
+    @Param({"40x20", "80x40", "160x80"})
+    public String size;
+
+    private GridSim mGridSim;
+    private PixelArraySource mPixels;
+    private float[][][] mAnimate;
+    private float[][][] mLastAnimate;
+    private GridGeometry mGeometry;
+    private float[] mLines;
+    private int[] mColors;
+    private RippleSequence mSequence;
+    private float[] mHeights;
+    private GlyphResponseCache mGlyphCache;
+    private String[] mTimes;
+    private int mTimeIndex;
+
+    @Setup
+    public void setup() {
+        int num_x = BenchmarkGrids.parseX(size);
+        int num_y = BenchmarkGrids.parseY(size);
+        mGridSim = new GridSim();
+        mGridSim.initGrid(num_x, num_y);
+        mPixels = BenchmarkGrids.textPixels(num_x, num_y);
+        mAnimate = new float[RIPPLE_TIME/2/30 + 1][num_y][num_x];
+        mLastAnimate = new float[RIPPLE_TIME/2/30 + 1][num_y][num_x];
+        mGridSim.setRecordInit(mLastAnimate, mPixels);
+        for (int i=2; i<mLastAnimate.length; ++i) {
+            mGridSim.simulateGrid(mLastAnimate, i, 1f/30);
+        }
+        mGeometry = new GridGeometry();
+        mLines = new float[8*num_x*num_y];
+        mColors = new int[2*num_x*num_y];
+        mSequence = new RippleSequence(num_x, num_y, RIPPLE_TIME/2/30 + 1);
+        mHeights = mSequence.getSim().newPlane();
+        mSequence.getSim().copyFromGrid(mLastAnimate[0], mHeights);
+
+        mGlyphCache = new GlyphResponseCache(num_x, num_y, RIPPLE_TIME/2/30 + 1, 1f/30,
+                64L*1024*1024, new BenchmarkGrids.BlockRasterizer());
+        // Consecutive ripple times over two minutes, so the cache warms up as on the watch.
+        mTimes = new String[30];
+        for (int i=0; i<mTimes.length; ++i) {
+            int sec = 4*i;
+            mTimes[i] = String.format("3:%02d:%02d", 59 + sec/60, sec%60).replace("3:60", "4:00");
+        }
+    }
+
+    /**
+     * The producer's work per ripple when building it from cached glyph responses.
+     */
+    @Benchmark
+    public RippleSequence composeFromGlyphCache() {
+        String text = mTimes[mTimeIndex];
+        mTimeIndex = (mTimeIndex + 1) % mTimes.length;
+        mGlyphCache.fill(mSequence, text, BenchmarkGrids.layout(text, mSequence.getSim().getNumX()),
+                2*mSequence.getSim().getNumY()/3);
+        return mSequence;
+    }
+
+    /**
+     * The work RippleProducer does off the draw thread for each ripple.
+     */
+    @Benchmark
+    public RippleSequence produceSequence() {
+        System.arraycopy(mHeights, 0, mSequence.getInitial(), 0, mHeights.length);
+        mSequence.start(null, 1f/30);
+        mSequence.precompute();
+        return mSequence;
+    }
+
+    @Benchmark
+    public int fullCycle() {
+        float[][][] a = mLastAnimate;
+        mLastAnimate = mAnimate;
+        mAnimate = a;
+        mGridSim.setRecordInit(mAnimate, mPixels);
+        int index = 2;
+        int lines = 0;
+        for (int frame=0; frame<RIPPLE_TIME; frame += FRAME_MS) {
+            while (index <= frame * 30f / 1000 && index < mAnimate.length) {
+                mGridSim.simulateGrid(mAnimate, index, 1f / 30);
+                index++;
+            }
+            int display_frame;
+            if (frame <= RIPPLE_TIME/2) {
+                display_frame = (int) ((RIPPLE_TIME/2 - frame) * 30f / 1000);
+            } else {
+                display_frame = (int) ((frame - RIPPLE_TIME/2) * 30f / 1000);
+            }
+            float scale = 1.0f;
+            if (frame < 400) {
+                scale = (frame/400f)*(2-frame/400f);
+            } else if (RIPPLE_TIME-frame < 400) {
+                scale = ((RIPPLE_TIME-frame)/400f)*(2-(RIPPLE_TIME-frame)/400f);
+            }
+            lines += DrawGridBenchmark.computeLines(mGeometry, mLastAnimate[display_frame], scale,
+                    mLines, mColors);
+        }
+        return lines;
+    }
+}
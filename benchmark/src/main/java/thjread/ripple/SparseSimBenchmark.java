@@ -0,0 +1,72 @@
+package thjread.ripple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole ripple of dense steps against tiled steps that skip tiles at rest. tile=0 is the dense
+ * kernel. "text" starts from a band of text across the middle rows, "spot" from a small
+ * disturbance in the centre, which leaves most of the grid at rest for most of the ripple.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SparseSimBenchmark {
+    private static final int LENGTH = 67;
+
+    @Param({"40x20", "160x80", "320x160"})
+    public String size;
+
+    @Param({"0", "8", "16"})
+    public int tile;
+
+    @Param({"text", "spot"})
+    public String initial;
+
+    private RippleSequence mSequence;
+
+    @Setup
+    public void setup() {
+        int num_x = BenchmarkGrids.parseX(size);
+        int num_y = BenchmarkGrids.parseY(size);
+        FlatGridSim sim = tile == 0 ? new FlatGridSim(num_x, num_y)
+                : new TiledGridSim(num_x, num_y, tile);
+        mSequence = new RippleSequence(sim, LENGTH);
+        float[] plane = mSequence.getInitial();
+        if (initial.equals("spot")) {
+            for (int y=num_y/2-1; y<=num_y/2; ++y) {
+                for (int x=num_x/2-1; x<=num_x/2; ++x) {
+                    plane[sim.index(x, y)] = 10;
+                }
+            }
+        } else {
+            GridSim gridSim = new GridSim();
+            gridSim.initGrid(num_x, num_y);
+            float[][][] record = new float[2][num_y][num_x];
+            gridSim.setRecordInit(record, BenchmarkGrids.textPixels(num_x, num_y));
+            sim.copyFromGrid(record[0], plane);
+        }
+        mSequence.start("", 1f/30);
+    }
+
+    @Benchmark
+    public float[] ripple() {
+        mSequence.restart(1f/30);
+        mSequence.precompute();
+        return mSequence.getStoredFrame(LENGTH-1);
+    }
+}
@@ -0,0 +1,72 @@
+package thjread.ripple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of tap ripples: the frames of a tap's lifetime, each stepping the tap field and
+ * adding it to a ripple frame, with taps overlapping at the start. Compare against drawing one
+ * frame in DrawGridBenchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TapRippleBenchmark {
+    private static final int RATE = 30;
+    private static final long LIFETIME = 2500;
+    private static final int FRAME_MS = 33;
+
+    @Param({"40x20", "80x40", "160x80"})
+    public String size;
+
+    @Param({"1", "4"})
+    public int taps;
+
+    private FlatGridSim mSim;
+    private float[] mFrame;
+    private TapRipples mTaps;
+    private long mNow;
+
+    @Setup
+    public void setup() {
+        int num_x = BenchmarkGrids.parseX(size);
+        int num_y = BenchmarkGrids.parseY(size);
+        mSim = new FlatGridSim(num_x, num_y);
+        mFrame = mSim.newPlane();
+        mTaps = new TapRipples(num_x, num_y, RATE, 1f/RATE, LIFETIME);
+    }
+
+    /**
+     * Average over the frames of one tap's lifetime.
+     */
+    @Benchmark
+    @OperationsPerInvocation((int) (LIFETIME/FRAME_MS))
+    public float[] frame() {
+        mNow += 2*LIFETIME;
+        int num_x = mSim.getNumX();
+        int num_y = mSim.getNumY();
+        for (int i=0; i<taps; ++i) {
+            mTaps.tap(num_x*(i+1)/(taps+1), num_y/2, mNow + i*FRAME_MS);
+        }
+        float[] shown = null;
+        for (long t=0; t<LIFETIME/FRAME_MS; ++t) {
+            shown = mTaps.apply(mSim, mFrame, 1f, mNow + t*FRAME_MS);
+        }
+        return shown;
+    }
+}
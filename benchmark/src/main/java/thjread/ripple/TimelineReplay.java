@@ -0,0 +1,511 @@
+package thjread.ripple;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays schedules of interactive, ambient and stalled time through {@link RippleTimeline} on a
+ * virtual clock, doing the sequence work onDraw does at each frame, and reports the simulation
+ * steps each frame needed on the draw thread, the worst frame, and memory use.
+ *
+ * Ripples the producer thread would prepare are prepared between frames and counted separately.
+ * Warm starts are asked for on entering ambient mode and are ready, played back from quantized
+ * frames as they would be from disk, once it has lasted {@link #WARM_START_MS}. Tap ripples
+ * aren't modelled. Text is drawn as blocks, so heights, and so redraw skipping, only roughly
+ * match real glyphs.
+ *
+ * Usage: TimelineReplay [stored|streamed|quantized|spectral] [WxH] [trace...]
+ *
+ * A trace is a built-in name (day, long-ambient, flicker, stalls, rewarm, warm-miss) or a list
+ * of segments, such as i60000 a28800000 s9000 b5000, each interactive, ambient, stalled or busy
+ * for that many ms. Stalled time is interactive with no frames drawn, as when the process is
+ * starved. Busy time is interactive with the producer too busy to finish any ripple asked for,
+ * so each boundary in it simulates its ripple on the draw thread.
+ */
+public class TimelineReplay {
+    private static final int RIPPLE_TIME = 4000;
+    private static final int SIM_RATE = 30;
+    private static final long REDRAW_MS = 1000/30;
+    private static final int DISSOLVE_SPEED = 3;
+    private static final String[] BUILT_IN = {"day", "long-ambient", "flicker", "stalls",
+            "rewarm", "warm-miss"};
+    /**
+     * Time in ambient mode after which the warm start asked for on entering it is ready.
+     */
+    private static final long WARM_START_MS = 500;
+
+    private static class VirtualClock implements RippleTimeline.Clock {
+        long mNow = 1500000000000L;
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+
+    /**
+     * Draws each character as a block of height set by the character.
+     */
+    private static class BlockText implements TextRasterizer {
+        private final int num_x;
+        private final int num_y;
+
+        BlockText(int num_x, int num_y) {
+            this.num_x = num_x;
+            this.num_y = num_y;
+        }
+
+        @Override
+        public void rasterizeGlyph(char c, float x, float y, FlatGridSim sim, float[] plane) {
+            for (int i=0; i<plane.length; ++i) {
+                plane[i] = 0;
+            }
+            drawGlyph(c, (int) x, (int) y, sim, plane);
+        }
+
+        private void drawGlyph(char c, int x, int y, FlatGridSim sim, float[] plane) {
+            int width = num_x/10;
+            for (int gy=Math.max(0, y-num_y/3); gy<y; ++gy) {
+                for (int gx=x; gx<Math.min(x+width-1, num_x); ++gx) {
+                    plane[sim.index(gx, gy)] = c == ':' ? 3 : 1 + (c - '0')*0.9f;
+                }
+            }
+        }
+
+        @Override
+        public void render(String text, FlatGridSim sim, float[] plane) {
+            for (int i=0; i<plane.length; ++i) {
+                plane[i] = 0;
+            }
+            float[] xs = new float[text.length()];
+            float y = layout(text, xs);
+            for (int i=0; i<text.length(); ++i) {
+                drawGlyph(text.charAt(i), (int) xs[i], (int) y, sim, plane);
+            }
+        }
+
+        @Override
+        public float layout(String text, float[] xs) {
+            int width = num_x/10;
+            int start = (num_x - width*text.length())/2;
+            for (int i=0; i<text.length(); ++i) {
+                xs[i] = start + i*width;
+            }
+            return num_y*2/3;
+        }
+    }
+
+    private final VirtualClock mClock = new VirtualClock();
+    private final RippleTimeline mTimeline = new RippleTimeline(mClock);
+    private final RippleProducer mFactory;
+    private final BlockText mText;
+    private final TimeText mTime = new TimeText(true);
+    private final TimeText mAmbientTime = new TimeText(false);
+    private final FrameInterpolator mInterpolator = new FrameInterpolator();
+    private final List<FrameSequence> mSequences = new ArrayList<FrameSequence>();
+    private final List<FrameSequence> mSpare = new ArrayList<FrameSequence>();
+    private final int mLength;
+    private FrameSequence mAnimate;
+    private FrameSequence mLastAnimate;
+    private FrameSequence mPending;
+    private FrameSequence mWarm;
+    private FrameSequence mWarmReplaced;
+    private final Map<String, QuantizedFrames> mWarmFrames = new HashMap<String, QuantizedFrames>();
+    private final int num_x;
+    private final int num_y;
+    private boolean mAmbientPrepared;
+    private long mBusyUntil;
+
+    private long mStart;
+    private long mFrames;
+    private long mRipples;
+    private long mLate;
+    private long mDissolves;
+    private long mMisses;
+    private long mWarmStarts;
+    private long mDrawSteps;
+    private long mMaxDrawSteps;
+    private long mMaxDrawStepsAt;
+    private long mProducerSteps;
+    private long mDrawNanos;
+    private long mMaxDrawNanos;
+
+    public TimelineReplay(int frames, int num_x, int num_y) {
+        this.num_x = num_x;
+        this.num_y = num_y;
+        mLength = RIPPLE_TIME/2/30*SIM_RATE/30 + 1;
+        mText = new BlockText(num_x, num_y);
+        mFactory = new RippleProducer(mText, num_x, num_y, mLength, 1f/SIM_RATE);
+        mFactory.setFrames(frames);
+        mTimeline.setTimeline(RIPPLE_TIME, SIM_RATE, true);
+        mAnimate = newSequence();
+        mLastAnimate = newSequence();
+        mStart = mClock.mNow;
+    }
+
+    private FrameSequence newSequence() {
+        if (!mSpare.isEmpty()) {
+            return mSpare.remove(mSpare.size()-1);
+        }
+        FrameSequence sequence = mFactory.newSequence();
+        mSequences.add(sequence);
+        return sequence;
+    }
+
+    /**
+     * Keeps sequence for reuse if it is one of the producer's, as RippleProducer.recycle does.
+     */
+    private void recycle(FrameSequence sequence) {
+        if (mSequences.contains(sequence)) {
+            mSpare.add(sequence);
+        }
+    }
+
+    private long totalSteps() {
+        long steps = 0;
+        for (FrameSequence sequence : mSequences) {
+            steps += sequence.getSteps();
+        }
+        return steps;
+    }
+
+    /**
+     * Plays a trace of segments, as described in the class comment.
+     */
+    public void play(String[] segments) {
+        for (String segment : segments) {
+            long ms = Long.parseLong(segment.substring(1));
+            switch (segment.charAt(0)) {
+                case 'i':
+                    interactive(ms);
+                    break;
+                case 'a':
+                    ambient(ms);
+                    break;
+                case 's':
+                    mClock.mNow += ms;
+                    break;
+                case 'b':
+                    mBusyUntil = mClock.mNow + ms;
+                    interactive(ms);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown segment " + segment);
+            }
+        }
+    }
+
+    private void interactive(long ms) {
+        long end = mClock.mNow + ms;
+        while (mClock.mNow < end) {
+            long next = frame();
+            mClock.mNow += Math.max(1, next);
+        }
+    }
+
+    /**
+     * Draws the ambient time on entering ambient mode and every minute, as onTimeTick does, and
+     * has the warm start for the minute entered in ready if it lasts long enough.
+     */
+    private void ambient(long ms) {
+        long end = mClock.mNow + ms;
+        if (ms >= WARM_START_MS) {
+            mAmbientTime.setTime(mClock.mNow);
+            mWarm = warmStart(mAmbientTime.toString());
+        }
+        while (mClock.mNow < end) {
+            prepareAmbient(mClock.mNow);
+            mTimeline.ambientFrame();
+            mClock.mNow = Math.min(end, (mClock.mNow/60000 + 1)*60000);
+        }
+    }
+
+    /**
+     * The warm start for the ambient text, played back from frames that can't be started again,
+     * as ones mapped from disk are.
+     */
+    private FrameSequence warmStart(String text) {
+        QuantizedFrames frames = mWarmFrames.get(text);
+        if (frames == null) {
+            QuantizedSequence sequence = new QuantizedSequence(new FlatGridSim(num_x, num_y),
+                    mLength, 16, 8);
+            mText.render(text, sequence.getSim(), sequence.getInitial());
+            sequence.start(text, DISSOLVE_SPEED/(float) SIM_RATE);
+            sequence.precompute();
+            frames = sequence.getFrames();
+            mWarmFrames.put(text, frames);
+        }
+        return new QuantizedSequence(frames);
+    }
+
+    private void prepareAmbient(long now) {
+        mAmbientTime.setTime(now);
+        mText.render(mAmbientTime.toString(), mAnimate.getSim(), mAnimate.getInitial());
+        mAnimate.start(null, 1f/SIM_RATE);
+        mAmbientPrepared = true;
+    }
+
+    /**
+     * Does the work of one interactive onDraw at the current time and returns the delay until
+     * the next.
+     */
+    private long frame() {
+        long now = mClock.mNow;
+        long start = System.nanoTime();
+        long steps = totalSteps();
+        long produced = 0;
+        if (mTimeline.boundary(now)) {
+            FrameSequence warm = null;
+            mRipples++;
+            if (mTimeline.isLate()) {
+                mLate++;
+            }
+            if (mTimeline.isFromAmbient()) {
+                if (!mAmbientPrepared) {
+                    prepareAmbient(now);
+                }
+                warm = mWarm != null && mWarm.getText().equals(mAmbientTime.toString())
+                        ? mWarm : null;
+                mWarm = null;
+                if (warm != null) {
+                    mWarmStarts++;
+                    showWarmStart(warm);
+                } else {
+                    showAnimate();
+                }
+            } else {
+                showNextRipple(now);
+            }
+            if (mTimeline.isDissolving() && warm == null) {
+                mDissolves++;
+                mLastAnimate.restart(DISSOLVE_SPEED/(float) SIM_RATE);
+            }
+            mTimeline.setRipple(mLastAnimate.getMotion(), mLastAnimate.getLength());
+            // The producer's work, done on its own thread in the watch face.
+            long before = totalSteps();
+            long producerStart = System.nanoTime();
+            produce(mTimeline.getTextTime());
+            produced = totalSteps() - before;
+            start += System.nanoTime() - producerStart;
+            mProducerSteps += produced;
+        }
+        mInterpolator.getFrame(mLastAnimate, mTimeline.position(now));
+        mTimeline.drawn(now);
+
+        long drawSteps = totalSteps() - steps - produced;
+        long nanos = System.nanoTime() - start;
+        mFrames++;
+        mDrawSteps += drawSteps;
+        mDrawNanos += nanos;
+        if (drawSteps > mMaxDrawSteps) {
+            mMaxDrawSteps = drawSteps;
+            mMaxDrawStepsAt = now - mStart;
+        }
+        mMaxDrawNanos = Math.max(mMaxDrawNanos, nanos);
+        return mTimeline.nextRedrawDelay(now, REDRAW_MS);
+    }
+
+    private void showNextRipple(long now) {
+        if (mPending != null) {
+            recycle(mLastAnimate);
+            if (mWarmReplaced != null) {
+                recycle(mWarmReplaced);
+                mWarmReplaced = null;
+            }
+            mLastAnimate = mPending;
+            mPending = null;
+            return;
+        }
+        mMisses++;
+        mTime.setTime(now + RIPPLE_TIME/2);
+        mText.render(mTime.toString(), mAnimate.getSim(), mAnimate.getInitial());
+        mAnimate.start(null, 1f/SIM_RATE);
+        mAnimate.precompute();
+        showAnimate();
+    }
+
+    /**
+     * Shows the warm start in place of mLastAnimate, as Ripple does, keeping the sequence it
+     * replaces for mAnimate.
+     */
+    private void showWarmStart(FrameSequence warm) {
+        if (mWarmReplaced == null) {
+            mWarmReplaced = mLastAnimate;
+        } else {
+            recycle(mLastAnimate);
+        }
+        mLastAnimate = warm;
+    }
+
+    /**
+     * Shows mAnimate, as Ripple does, never leaving a warm start in mAnimate.
+     */
+    private void showAnimate() {
+        FrameSequence shown = mLastAnimate;
+        mLastAnimate = mAnimate;
+        if (mWarmReplaced != null) {
+            recycle(shown);
+            mAnimate = mWarmReplaced;
+            mWarmReplaced = null;
+        } else {
+            mAnimate = shown;
+        }
+        mAmbientPrepared = false;
+    }
+
+    private void produce(long textTime) {
+        if (mPending != null) {
+            mSpare.add(mPending);
+            mPending = null;
+        }
+        if (mClock.mNow < mBusyUntil) {
+            return;
+        }
+        mPending = newSequence();
+        mTime.setTime(textTime);
+        mText.render(mTime.toString(), mPending.getSim(), mPending.getInitial());
+        mPending.start(mTime.toString(), 1f/SIM_RATE);
+        mPending.precompute();
+    }
+
+    /**
+     * Most simulation steps any one frame did on the draw thread.
+     */
+    public long getMaxDrawSteps() {
+        return mMaxDrawSteps;
+    }
+
+    public long getDissolves() {
+        return mDissolves;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    public long getMisses() {
+        return mMisses;
+    }
+
+    public long getWarmStarts() {
+        return mWarmStarts;
+    }
+
+    /**
+     * One line summarising the replay so far.
+     */
+    public String report() {
+        return String.format("frames=%d ripples=%d late=%d dissolves=%d misses=%d warm=%d"
+                        + " drawSteps/frame=%.2f maxDrawSteps=%d (at %.1fs) drawMs mean=%.3f"
+                        + " max=%.3f producerSteps=%d sequences=%d",
+                mFrames, mRipples, mLate, mDissolves, mMisses, mWarmStarts,
+                mFrames == 0 ? 0 : (double) mDrawSteps/mFrames, mMaxDrawSteps,
+                mMaxDrawStepsAt/1000.0, mFrames == 0 ? 0 : mDrawNanos/1e6/mFrames,
+                mMaxDrawNanos/1e6, mProducerSteps, mSequences.size());
+    }
+
+    static String[] trace(String name) {
+        List<String> segments = new ArrayList<String>();
+        if (name.equals("day")) {
+            // Glanced at for ten seconds a minute, with the screen timing out between.
+            for (int i=0; i<24*60; ++i) {
+                segments.add("i10000");
+                segments.add("a50000");
+            }
+        } else if (name.equals("long-ambient")) {
+            segments.add("i60000");
+            segments.add("a28800000");
+            segments.add("i60000");
+        } else if (name.equals("flicker")) {
+            // Rapid toggling, as a wrist turning back and forth does.
+            for (int i=0; i<200; ++i) {
+                segments.add("i700");
+                segments.add("a300");
+            }
+        } else if (name.equals("stalls")) {
+            // Starved for one, two and three ripples at a time.
+            for (int i=0; i<100; ++i) {
+                segments.add("i3000");
+                segments.add("s" + (RIPPLE_TIME*(1 + i%3) + 500));
+            }
+        } else if (name.equals("rewarm")) {
+            // Back into ambient mode during the dissolve of a warm start, and out again before
+            // the next warm start is ready.
+            for (int i=0; i<50; ++i) {
+                segments.add("a20000");
+                segments.add("i500");
+                segments.add("a100");
+                segments.add("i4000");
+            }
+        } else if (name.equals("warm-miss")) {
+            // Warm starts followed by ripples the producer doesn't finish in time.
+            for (int i=0; i<50; ++i) {
+                segments.add("a20000");
+                segments.add("b9000");
+            }
+        } else {
+            return name.split("[ ,]+");
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    private static long allocatedBytes() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i=0; i<3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) {
+        int frames = RippleProducer.FRAMES_STORED;
+        int num_x = 40;
+        int num_y = 20;
+        List<String> traces = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.equals("stored")) {
+                frames = RippleProducer.FRAMES_STORED;
+            } else if (arg.equals("streamed")) {
+                frames = RippleProducer.FRAMES_STREAMED;
+            } else if (arg.equals("quantized")) {
+                frames = RippleProducer.FRAMES_QUANTIZED;
+            } else if (arg.equals("spectral")) {
+                frames = RippleProducer.FRAMES_SPECTRAL;
+            } else if (arg.matches("\\d+x\\d+")) {
+                num_x = BenchmarkGrids.parseX(arg);
+                num_y = BenchmarkGrids.parseY(arg);
+            } else {
+                traces.add(arg);
+            }
+        }
+        if (traces.isEmpty()) {
+            for (String name : BUILT_IN) {
+                traces.add(name);
+            }
+        }
+
+        for (String name : traces) {
+            long heap = usedHeap();
+            long allocated = allocatedBytes();
+            TimelineReplay replay = new TimelineReplay(frames, num_x, num_y);
+            replay.play(trace(name));
+            allocated = allocatedBytes() - allocated;
+            long retained = usedHeap() - heap;
+            System.out.println(name + ": " + replay.report()
+                    + " allocatedKB=" + (allocated < 0 ? "?" : allocated/1024)
+                    + " retainedKB=" + Math.max(0, retained)/1024);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pins the worst frame of replayed schedules for each kind of frame storage, so work creeping
+ * back onto the draw thread, such as re-encoding a ripple when it dissolves, fails here.
+ */
+public class TimelineReplayTest {
+    private static final String[] TRACES = {"flicker", "stalls", "rewarm"};
+
+    private static void assertMaxDrawSteps(int frames, long maxDrawSteps) {
+        for (String name : TRACES) {
+            TimelineReplay replay = new TimelineReplay(frames, 40, 20);
+            replay.play(TimelineReplay.trace(name));
+            assertTrue(name, replay.getFrames() > 0);
+            assertTrue(name, replay.getDissolves() > 0);
+            assertTrue(name + ": " + replay.report(), replay.getMaxDrawSteps() <= maxDrawSteps);
+        }
+    }
+
+    /**
+     * Warm starts can't be started again, so must never be left to prepare the next ripple or
+     * the ambient time in, whether ambient mode comes back during their dissolve or the producer
+     * misses the ripple after them.
+     */
+    @Test
+    public void warmStartsAreNeverReused() throws Exception {
+        int[] kinds = {RippleProducer.FRAMES_STORED, RippleProducer.FRAMES_STREAMED,
+                RippleProducer.FRAMES_QUANTIZED, RippleProducer.FRAMES_SPECTRAL};
+        for (int frames : kinds) {
+            TimelineReplay rewarm = new TimelineReplay(frames, 40, 20);
+            rewarm.play(TimelineReplay.trace("rewarm"));
+            assertTrue(rewarm.report(), rewarm.getWarmStarts() > 0);
+
+            TimelineReplay miss = new TimelineReplay(frames, 40, 20);
+            miss.play(TimelineReplay.trace("warm-miss"));
+            assertTrue(miss.report(), miss.getWarmStarts() > 0);
+            assertTrue(miss.report(), miss.getMisses() > 0);
+        }
+    }
+
+    @Test
+    public void storedFramesStepOnceAFrame() throws Exception {
+        assertMaxDrawSteps(RippleProducer.FRAMES_STORED, 1);
+    }
+
+    @Test
+    public void streamedFramesCatchUpInAFewSteps() throws Exception {
+        assertMaxDrawSteps(RippleProducer.FRAMES_STREAMED, 5);
+    }
+
+    @Test
+    public void quantizedFramesAreNotReencodedOnDissolve() throws Exception {
+        assertMaxDrawSteps(RippleProducer.FRAMES_QUANTIZED, 2);
+    }
+
+    @Test
+    public void spectralFramesNeverStep() throws Exception {
+        assertMaxDrawSteps(RippleProducer.FRAMES_SPECTRAL, 0);
+    }
+}
@@ -0,0 +1,220 @@
+package thjread.ripple;
+
+/**
+ * Draws time strings as initial heights by compositing glyphs from a {@link GlyphAtlas}, with no
+ * text rendering or pixel reads.
+ *
+ * Strings are laid out as {@link TextHeightfield} lays them out: the ink bounds centred, with
+ * integer arithmetic. Glyph coverages are combined as anti-aliased text is drawn, each over the
+ * ones before it, then blended from the background to the text colour and converted to heights
+ * as {@link FlatGridSim#pixelHeight(int)} does. When the atlas has tabular digits, pen positions
+ * are cached by string shape, so a time string's advances are only summed when its shape
+ * changes. The ink bounds depend on which digits are drawn, so they are always worked out.
+ *
+ * Each instance owns scratch buffers, so it may be used from any one thread; the atlas itself
+ * may be shared.
+ */
+public class AtlasText implements TextRasterizer {
+    private static final int MAX_CACHED_LENGTH = 16;
+
+    private final GlyphAtlas mAtlas;
+    private final int num_x;
+    private final int num_y;
+    private final float mBackgroundHeight;
+    private final float mTextHeight;
+    private final boolean mTabular;
+    private final float[] mCoverage;
+    private final int[] mLayoutKey = new int[MAX_CACHED_LENGTH+1];
+    private final float[][] mLayoutPens = new float[MAX_CACHED_LENGTH+1][];
+    private char[] mChars = new char[8];
+    private float[] mPenX = new float[8];
+    private int mBaseline;
+    private int mLayoutMisses;
+
+    /**
+     * @param textColor ARGB colour text is drawn in
+     * @param backgroundColor ARGB colour behind the text
+     */
+    public AtlasText(GlyphAtlas atlas, int num_x, int num_y, int textColor, int backgroundColor) {
+        mAtlas = atlas;
+        this.num_x = num_x;
+        this.num_y = num_y;
+        mBackgroundHeight = FlatGridSim.pixelHeight(backgroundColor);
+        mTextHeight = FlatGridSim.pixelHeight(textColor);
+        mTabular = atlas.isTabular();
+        mCoverage = new float[num_x*num_y];
+        for (int i=0; i<mLayoutKey.length; ++i) {
+            mLayoutKey[i] = -1;
+        }
+    }
+
+    public GlyphAtlas getAtlas() {
+        return mAtlas;
+    }
+
+    /**
+     * Number of layouts whose pen positions were summed from advances rather than found in the
+     * cache.
+     */
+    public int getLayoutMisses() {
+        return mLayoutMisses;
+    }
+
+    @Override
+    public void render(String text, FlatGridSim sim, float[] plane) {
+        if (mChars.length < text.length()) {
+            mChars = new char[text.length()];
+        }
+        text.getChars(0, text.length(), mChars, 0);
+        render(mChars, text.length(), sim, plane);
+    }
+
+    /**
+     * Draws the first length chars of text, centred, and writes the resulting heights into plane,
+     * which is laid out by sim. Characters not in the atlas are left blank.
+     */
+    public void render(char[] text, int length, FlatGridSim sim, float[] plane) {
+        if (mPenX.length < length) {
+            mPenX = new float[length];
+        }
+        layout(text, length, mPenX);
+        clearCoverage();
+        for (int i=0; i<length; ++i) {
+            addGlyph(text[i], mPenX[i], mBaseline);
+        }
+        writeHeights(sim, plane);
+    }
+
+    @Override
+    public float layout(String text, float[] xs) {
+        if (mChars.length < text.length()) {
+            mChars = new char[text.length()];
+        }
+        text.getChars(0, text.length(), mChars, 0);
+        layout(mChars, text.length(), xs);
+        return mBaseline;
+    }
+
+    @Override
+    public void rasterizeGlyph(char c, float x, float y, FlatGridSim sim, float[] plane) {
+        clearCoverage();
+        addGlyph(c, x, (int) y);
+        writeHeights(sim, plane);
+    }
+
+    /**
+     * Writes the pen x of each of the first length chars into xs and sets mBaseline.
+     */
+    private void layout(char[] text, int length, float[] xs) {
+        int key = -1;
+        if (mTabular && length <= MAX_CACHED_LENGTH) {
+            key = 0;
+            for (int i=0; i<length; ++i) {
+                if (text[i] == ':') {
+                    key |= 1 << i;
+                } else if (text[i] < '0' || text[i] > '9') {
+                    key = -1;
+                    break;
+                }
+            }
+        }
+
+        if (key >= 0 && mLayoutKey[length] == key) {
+            System.arraycopy(mLayoutPens[length], 0, xs, 0, length);
+        } else {
+            mLayoutMisses++;
+            float pen = 0;
+            for (int i=0; i<length; ++i) {
+                xs[i] = pen;
+                GlyphAtlas.Glyph g = mAtlas.get(text[i]);
+                if (g != null) {
+                    pen += g.advance;
+                }
+            }
+            if (key >= 0) {
+                if (mLayoutPens[length] == null) {
+                    mLayoutPens[length] = new float[length];
+                }
+                System.arraycopy(xs, 0, mLayoutPens[length], 0, length);
+                mLayoutKey[length] = key;
+            }
+        }
+
+        // Union of the ink bounds, rounded outwards as getTextBounds rounds them.
+        float left = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int i=0; i<length; ++i) {
+            GlyphAtlas.Glyph g = mAtlas.get(text[i]);
+            if (g != null && g.right > g.left) {
+                left = Math.min(left, xs[i] + g.left);
+                right = Math.max(right, xs[i] + g.right);
+                top = Math.min(top, g.top);
+                bottom = Math.max(bottom, g.bottom);
+            }
+        }
+        int width = 0;
+        int height = 0;
+        if (right > left) {
+            width = (int) Math.ceil(right) - (int) Math.floor(left);
+            height = bottom - top;
+        }
+        int start = num_x / 2 - width / 2;
+        mBaseline = height / 2 + num_y / 2;
+        for (int i=0; i<length; ++i) {
+            xs[i] += start;
+        }
+    }
+
+    private void clearCoverage() {
+        for (int i=0; i<mCoverage.length; ++i) {
+            mCoverage[i] = 0;
+        }
+    }
+
+    /**
+     * Composites glyph c with its pen at (x, baseline) over the coverage so far.
+     */
+    private void addGlyph(char c, float x, int baseline) {
+        GlyphAtlas.Glyph g = mAtlas.get(c);
+        if (g == null) {
+            return;
+        }
+        int phases = mAtlas.getPhases();
+        int penX = (int) Math.floor(x);
+        int phase = Math.round((x - penX)*phases);
+        if (phase == phases) {
+            penX++;
+            phase = 0;
+        }
+        float[] coverage = g.coverage[phase];
+
+        int x0 = penX + g.originX;
+        int y0 = baseline + g.originY;
+        int gx0 = Math.max(0, -x0);
+        int gx1 = Math.min(g.width, num_x - x0);
+        int gy0 = Math.max(0, -y0);
+        int gy1 = Math.min(g.height, num_y - y0);
+        for (int gy=gy0; gy<gy1; ++gy) {
+            int in = gy*g.width;
+            int out = (y0 + gy)*num_x + x0;
+            for (int gx=gx0; gx<gx1; ++gx) {
+                float a = coverage[in + gx];
+                float b = mCoverage[out + gx];
+                mCoverage[out + gx] = a + b*(1 - a);
+            }
+        }
+    }
+
+    private void writeHeights(FlatGridSim sim, float[] plane) {
+        float range = mTextHeight - mBackgroundHeight;
+        for (int y=0; y<num_y; ++y) {
+            int in = y*num_x;
+            int out = sim.index(0, y);
+            for (int x=0; x<num_x; ++x) {
+                plane[out + x] = mBackgroundHeight + range*mCoverage[in + x];
+            }
+        }
+    }
+}
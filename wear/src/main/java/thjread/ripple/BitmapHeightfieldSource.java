@@ -0,0 +1,30 @@
+package thjread.ripple;
+
+import android.graphics.Bitmap;
+
+/**
+ * Heightfield source reading from an Android bitmap with bulk getPixels calls.
+ */
+public class BitmapHeightfieldSource implements HeightfieldSource {
+    private final Bitmap mBitmap;
+
+    public BitmapHeightfieldSource(Bitmap bitmap) {
+        mBitmap = bitmap;
+    }
+
+    @Override
+    public int getWidth() {
+        return mBitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mBitmap.getHeight();
+    }
+
+    @Override
+    public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width,
+                          int height) {
+        mBitmap.getPixels(pixels, offset, stride, x, y, width, height);
+    }
+}
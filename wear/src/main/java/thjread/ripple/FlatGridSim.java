@@ -0,0 +1,153 @@
+package thjread.ripple;
+
+/**
+ * Wave simulation over flat float[] planes.
+ *
+ * Each plane holds one frame as (num_y+2) rows of (num_x+2) floats: the grid itself plus a
+ * one-cell halo around it. Before a step the halo of the current frame is filled with copies of
+ * the adjacent edge cells, which gives the same reflective boundary as clamping edge neighbours
+ * to "here", so the inner loop is a plain stride-1 sweep with no boundary tests.
+ */
+public class FlatGridSim {
+    private int num_x;
+    private int num_y;
+    private int stride;
+
+    public FlatGridSim(int num_x, int num_y) {
+        initGrid(num_x, num_y);
+    }
+
+    public void initGrid(int num_x, int num_y) {
+        this.num_x = num_x;
+        this.num_y = num_y;
+        this.stride = num_x + 2;
+    }
+
+    public int getNumX() {
+        return num_x;
+    }
+
+    public int getNumY() {
+        return num_y;
+    }
+
+    /**
+     * Distance in floats between vertically adjacent cells.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Number of floats in one plane, including the halo.
+     */
+    public int getPlaneSize() {
+        return stride*(num_y+2);
+    }
+
+    /**
+     * Offset of grid cell (x, y) within a plane.
+     */
+    public int index(int x, int y) {
+        return (y+1)*stride + x + 1;
+    }
+
+    /**
+     * Height of a cell whose text bitmap pixel is pixel: the blue channel scaled to 0..10.
+     */
+    public static float pixelHeight(int pixel) {
+        return ((float) (pixel & 0xff))*10/255;
+    }
+
+    public float[] newPlane() {
+        return new float[getPlaneSize()];
+    }
+
+    /**
+     * Copies the edge cells of the plane into its halo.
+     */
+    public void fillHalo(float[] plane) {
+        fillHalo(plane, 0, num_y);
+    }
+
+    /**
+     * Fills the halo cells that rows y0 to y1-1 are stepped from: their left and right ends, and
+     * the rows above and below the grid if the range includes its first or last row. Only the
+     * plane's own cells in those rows are read, so disjoint ranges may be filled concurrently.
+     */
+    public void fillHalo(float[] plane, int y0, int y1) {
+        for (int row=(y0+1)*stride; row<(y1+1)*stride; row += stride) {
+            plane[row] = plane[row+1];
+            plane[row+num_x+1] = plane[row+num_x];
+        }
+        if (y0 == 0) {
+            System.arraycopy(plane, stride, plane, 0, stride);
+        }
+        if (y1 == num_y) {
+            int last = (num_y+1)*stride;
+            System.arraycopy(plane, last - stride, plane, last, stride);
+        }
+    }
+
+    /**
+     * Called before stepping from planes that were written directly rather than by the previous
+     * step, such as a freshly rendered initial frame. Does nothing here; see
+     * {@link TiledGridSim}.
+     */
+    public void beginSequence() {
+    }
+
+    /**
+     * Computes the frame after here into out, given the frame before it in old. out may be the
+     * same array as old. The halo of here is refreshed as a side effect.
+     */
+    public void step(float[] old, float[] here, float[] out, float diff) {
+        stepRows(old, here, out, diff, 0, num_y);
+    }
+
+    /**
+     * Does the work of {@link #step} for rows y0 to y1-1 only. Calls for disjoint row ranges of
+     * the same step touch disjoint cells of out and of the halo of here, so they may run
+     * concurrently.
+     */
+    public void stepRows(float[] old, float[] here, float[] out, float diff, int y0, int y1) {
+        fillHalo(here, y0, y1);
+        int s = stride;
+        for (int y=y0; y<y1; ++y) {
+            int start = (y+1)*s + 1;
+            int end = start + num_x;
+            for (int i=start; i<end; ++i) {
+                float h = here[i];
+                float lagrangian = (here[i+1]-h)-(h-here[i-1]) + (here[i+s]-h)-(h-here[i-s]);
+                out[i] = 0.35f*lagrangian*diff + 2*h - old[i];
+            }
+        }
+    }
+
+    /**
+     * Largest absolute difference between corresponding grid cells of two planes.
+     */
+    public float maxChange(float[] a, float[] b) {
+        float max = 0;
+        for (int y=0; y<num_y; ++y) {
+            int start = index(0, y);
+            int end = start + num_x;
+            for (int i=start; i<end; ++i) {
+                max = Math.max(max, Math.abs(b[i] - a[i]));
+            }
+        }
+        return max;
+    }
+
+    public void copyFromGrid(float[][] grid, float[] plane) {
+        for (int y=0; y<num_y; ++y) {
+            System.arraycopy(grid[y], 0, plane, index(0, y), num_x);
+        }
+    }
+
+    public void copyToGrid(float[] plane, float[][] grid) {
+        for (int y=0; y<num_y; ++y) {
+            System.arraycopy(plane, index(0, y), grid[y], 0, num_x);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package thjread.ripple;
+
+/**
+ * Displays a ripple at fractional frame positions by blending the two simulated frames either
+ * side, so the simulation can run at a lower rate than the screen is redrawn without motion
+ * visibly stepping from frame to frame.
+ *
+ * Owns one scratch plane per grid size; the plane returned by {@link #getFrame} is overwritten by
+ * the next call.
+ */
+public class FrameInterpolator {
+    private float[] mBlend;
+
+    /**
+     * Returns the heights of sequence at position, in frames. Whole positions, and positions
+     * past the last frame, return the sequence's own plane without blending.
+     */
+    public float[] getFrame(FrameSequence sequence, float position) {
+        int last = sequence.getLength()-1;
+        int index = Math.max(0, Math.min((int) Math.floor(position), last));
+        float t = position - index;
+        if (t <= 0 || index == last) {
+            return sequence.getFrame(index);
+        }
+
+        FlatGridSim sim = sequence.getSim();
+        if (mBlend == null || mBlend.length != sim.getPlaneSize()) {
+            mBlend = sim.newPlane();
+        }
+        // The sequence may reuse its plane for the next frame, so copy this one first.
+        float[] a = sequence.getFrame(index);
+        System.arraycopy(a, 0, mBlend, 0, a.length);
+        float[] b = sequence.getFrame(index+1);
+        lerp(sim, mBlend, b, t, mBlend);
+        return mBlend;
+    }
+
+    /**
+     * Writes a + t*(b - a) for each grid cell of sim into out, which may be a or b.
+     */
+    public static void lerp(FlatGridSim sim, float[] a, float[] b, float t, float[] out) {
+        int num_x = sim.getNumX();
+        for (int y=0; y<sim.getNumY(); ++y) {
+            int start = sim.index(0, y);
+            int end = start + num_x;
+            for (int i=start; i<end; ++i) {
+                out[i] = a[i] + t*(b[i] - a[i]);
+            }
+        }
+    }
+}
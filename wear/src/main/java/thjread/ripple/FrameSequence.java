@@ -0,0 +1,59 @@
+package thjread.ripple;
+
+/**
+ * The frames of one ripple, as {@link FlatGridSim} planes, however they are produced.
+ *
+ * Write the initial heights into {@link #getInitial()}, call {@link #start(String, float)}, then
+ * read frames in any order. A sequence is owned by one thread at a time; ownership is handed over
+ * through the atomic references in {@link RippleProducer}, which also publish its contents.
+ */
+public interface FrameSequence {
+    FlatGridSim getSim();
+
+    /**
+     * Number of frames the ripple is shown for.
+     */
+    int getLength();
+
+    /**
+     * The text this sequence was made from, or null if it was made from something else.
+     */
+    String getText();
+
+    /**
+     * Plane to write the still heights at frame 0 into before starting.
+     */
+    float[] getInitial();
+
+    /**
+     * Starts the ripple from the initial heights, which are held still for the first step, with
+     * time step diff between frames.
+     */
+    void start(String text, float diff);
+
+    /**
+     * Starts the same ripple again with a different time step.
+     */
+    void restart(float diff);
+
+    /**
+     * Does any work needed so that later {@link #getFrame(int)} calls are cheap.
+     */
+    void precompute();
+
+    /**
+     * Returns frame index. The plane may be reused by the next call.
+     */
+    float[] getFrame(int index);
+
+    /**
+     * After {@link #precompute()}, the largest change of any cell from each frame to the next,
+     * see {@link FlatGridSim#maxChange}; or null if the sequence doesn't measure it.
+     */
+    float[] getMotion();
+
+    /**
+     * Number of simulation steps this sequence has taken, for instrumentation.
+     */
+    long getSteps();
+}
@@ -0,0 +1,197 @@
+package thjread.ripple;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings of each phase of drawing and preparing ripples, and counts of notable events, for
+ * finding out where dropped frames come from.
+ *
+ * Each phase has a histogram of durations with power-of-two nanosecond buckets, and the number of
+ * simulation steps a frame needed to catch up is kept the same way. Everything lives in
+ * preallocated atomic arrays, so any thread can record without locking or allocating; a record
+ * costs a couple of System.nanoTime() calls and atomic adds. When disabled, {@link #begin()} skips
+ * the clock and nothing is recorded.
+ */
+public class FrameStats {
+    /** The whole of onDraw in interactive mode. */
+    public static final int PHASE_FRAME = 0;
+    /** Rasterizing time text into initial heights on the draw thread. */
+    public static final int PHASE_TEXT = 1;
+    /** Starting and precomputing a ripple on the draw thread. */
+    public static final int PHASE_SIMULATE = 2;
+    /** Fetching the displayed frame, including any catch-up steps. */
+    public static final int PHASE_GET_FRAME = 3;
+    /** Batching and drawing grid lines. */
+    public static final int PHASE_DRAW_GRID = 4;
+    /** Preparing a ripple on the producer thread. */
+    public static final int PHASE_PRODUCE = 5;
+    /** Stepping tap ripples and adding them to the displayed frame. */
+    public static final int PHASE_TAPS = 6;
+    private static final String[] PHASE_NAMES = {
+            "frame", "text", "simulate", "getFrame", "drawGrid", "produce", "taps"};
+
+    /** Ripples started at least a whole ripple late. */
+    public static final int COUNT_LATE = 0;
+    public static final int COUNT_AMBIENT_ENTER = 1;
+    public static final int COUNT_AMBIENT_EXIT = 2;
+    /** Ripples the producer hadn't finished, simulated on the draw thread instead. */
+    public static final int COUNT_PRODUCER_MISS = 3;
+    public static final int COUNT_QUALITY_CHANGE = 4;
+    /** Interactive redraws skipped because they would have shown no visible change. */
+    public static final int COUNT_SKIPPED_REDRAWS = 5;
+    private static final String[] COUNT_NAMES = {
+            "lateRipples", "ambientEnter", "ambientExit", "producerMisses", "qualityChanges",
+            "skippedRedraws"};
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray mTimes = new AtomicLongArray(PHASE_NAMES.length*BUCKETS);
+    private final AtomicLongArray mTotals = new AtomicLongArray(PHASE_NAMES.length);
+    private final AtomicLongArray mSteps = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray mCounts = new AtomicLongArray(COUNT_NAMES.length);
+    private volatile boolean mEnabled = true;
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Start time to pass to {@link #end(int, long)}, or 0 if disabled.
+     */
+    public long begin() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records phase as having run from start, as returned by {@link #begin()}, until now.
+     */
+    public void end(int phase, long start) {
+        if (start != 0) {
+            record(phase, System.nanoTime() - start);
+        }
+    }
+
+    public void record(int phase, long nanos) {
+        if (!mEnabled) {
+            return;
+        }
+        mTimes.incrementAndGet(phase*BUCKETS + bucket(nanos));
+        mTotals.addAndGet(phase, nanos);
+    }
+
+    /**
+     * Records the number of simulation steps one frame needed.
+     */
+    public void recordSteps(long steps) {
+        if (mEnabled) {
+            mSteps.incrementAndGet(bucket(steps));
+        }
+    }
+
+    public void count(int event) {
+        count(event, 1);
+    }
+
+    public void count(int event, long n) {
+        if (mEnabled) {
+            mCounts.addAndGet(event, n);
+        }
+    }
+
+    public long getCount(int event) {
+        return mCounts.get(event);
+    }
+
+    /**
+     * Number of times phase has been recorded.
+     */
+    public long getSamples(int phase) {
+        long samples = 0;
+        for (int b=0; b<BUCKETS; ++b) {
+            samples += mTimes.get(phase*BUCKETS + b);
+        }
+        return samples;
+    }
+
+    /**
+     * Value below which the fraction q of phase's samples fall, rounded up to a bucket bound.
+     */
+    public long getQuantile(int phase, double q) {
+        return quantile(mTimes, phase*BUCKETS, q);
+    }
+
+    public void reset() {
+        for (int i=0; i<mTimes.length(); ++i) {
+            mTimes.set(i, 0);
+        }
+        for (int i=0; i<mTotals.length(); ++i) {
+            mTotals.set(i, 0);
+        }
+        for (int i=0; i<mSteps.length(); ++i) {
+            mSteps.set(i, 0);
+        }
+        for (int i=0; i<mCounts.length(); ++i) {
+            mCounts.set(i, 0);
+        }
+    }
+
+    /**
+     * Bucket b holds values v with 2^(b-1) <= v < 2^b; bucket 0 holds zero.
+     */
+    private static int bucket(long value) {
+        return Math.min(64 - Long.numberOfLeadingZeros(Math.max(value, 0)), BUCKETS-1);
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : (1L << bucket) - 1;
+    }
+
+    private static long quantile(AtomicLongArray histogram, int offset, double q) {
+        long samples = 0;
+        for (int b=0; b<BUCKETS; ++b) {
+            samples += histogram.get(offset + b);
+        }
+        long seen = 0;
+        for (int b=0; b<BUCKETS; ++b) {
+            seen += histogram.get(offset + b);
+            if (samples > 0 && seen >= q*samples) {
+                return upperBound(b);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Writes a summary of every phase and count, one per line, each starting with prefix.
+     * Times are in microseconds; quantiles are bucket upper bounds.
+     */
+    public void dump(String prefix, PrintWriter out) {
+        out.print(prefix);
+        out.println("FrameStats" + (mEnabled ? "" : " (disabled)") + ":");
+        for (int p=0; p<PHASE_NAMES.length; ++p) {
+            long samples = getSamples(p);
+            out.print(prefix);
+            out.print("  " + PHASE_NAMES[p] + ": n=" + samples);
+            if (samples > 0) {
+                out.print(" mean=" + mTotals.get(p)/samples/1000
+                        + " p50<=" + getQuantile(p, 0.5)/1000
+                        + " p90<=" + getQuantile(p, 0.9)/1000
+                        + " p99<=" + getQuantile(p, 0.99)/1000
+                        + " max<=" + getQuantile(p, 1)/1000);
+            }
+            out.println();
+        }
+        out.print(prefix);
+        out.println("  catchUpSteps: p50<=" + quantile(mSteps, 0, 0.5)
+                + " p99<=" + quantile(mSteps, 0, 0.99) + " max<=" + quantile(mSteps, 0, 1));
+        for (int c=0; c<COUNT_NAMES.length; ++c) {
+            out.print(prefix);
+            out.println("  " + COUNT_NAMES[c] + "=" + mCounts.get(c));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package thjread.ripple;
+
+/**
+ * Anti-aliased coverage and metrics of each character of one typeface at one size, rasterized
+ * once so that time strings can be composed without drawing text.
+ *
+ * Each glyph is stored at {@link #getPhases()} evenly spaced sub-cell horizontal pen offsets, so
+ * glyphs placed at fractional pen positions look as they would drawn directly. An atlas is not
+ * changed after it has been filled, so it may be shared between threads; see {@link AtlasText}
+ * for drawing with it.
+ */
+public class GlyphAtlas {
+    /**
+     * One character's rasterization. Bounds and cell offsets are relative to the pen position,
+     * with y increasing downwards from the baseline.
+     */
+    public static final class Glyph {
+        final float advance;
+        final int left;
+        final int top;
+        final int right;
+        final int bottom;
+        final int originX;
+        final int originY;
+        final int width;
+        final int height;
+        final float[][] coverage;
+
+        /**
+         * @param advance distance to the next pen position
+         * @param left ink bounds, as Paint.getTextBounds gives them
+         * @param originX offset from an integer pen position of the first cell of coverage
+         * @param originY offset from the baseline of the first row of coverage
+         * @param coverage for each phase p, the coverage from 0 to 1 of width by height cells,
+         *                 row by row, with the pen p/phases of a cell to the right
+         */
+        public Glyph(float advance, int left, int top, int right, int bottom, int originX,
+                     int originY, int width, int height, float[][] coverage) {
+            for (float[] phase : coverage) {
+                if (phase.length < width*height) {
+                    throw new IllegalArgumentException("Coverage smaller than " + width + "x"
+                            + height);
+                }
+            }
+            this.advance = advance;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            this.originX = originX;
+            this.originY = originY;
+            this.width = width;
+            this.height = height;
+            this.coverage = coverage;
+        }
+    }
+
+    /**
+     * Characters a time string can contain.
+     */
+    public static final String TIME_CHARS = "0123456789:";
+
+    private final int mPhases;
+    private final Glyph[] mGlyphs = new Glyph[128];
+
+    /**
+     * @param phases number of sub-cell pen offsets each glyph is stored at
+     */
+    public GlyphAtlas(int phases) {
+        mPhases = phases;
+    }
+
+    public int getPhases() {
+        return mPhases;
+    }
+
+    public void put(char c, Glyph glyph) {
+        if (glyph.coverage.length != mPhases) {
+            throw new IllegalArgumentException("Expected " + mPhases + " phases, got "
+                    + glyph.coverage.length);
+        }
+        mGlyphs[c] = glyph;
+    }
+
+    /**
+     * The glyph for c, or null if it isn't in the atlas.
+     */
+    public Glyph get(char c) {
+        return c < mGlyphs.length ? mGlyphs[c] : null;
+    }
+
+    /**
+     * Whether every digit has the same advance, so that the layout of a time string depends only
+     * on where its colons are.
+     */
+    public boolean isTabular() {
+        Glyph zero = get('0');
+        for (char c='1'; c<='9'; ++c) {
+            Glyph g = get(c);
+            if (zero == null || g == null || g.advance != zero.advance) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,240 @@
+package thjread.ripple;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds ripple sequences by superposition instead of simulation.
+ *
+ * The simulation step is linear, so the frames for a whole time string are the sum of the frames
+ * each glyph would produce on its own at the same position. This caches those per-glyph
+ * responses, keyed by character and pen position, in least-recently-used order within a memory
+ * budget. It also keeps the running sum for the last string composed, so that a new string only
+ * costs adding the glyphs that appeared and subtracting those that went away; usually just the
+ * seconds digits. The sum is rebuilt from scratch every {@link #MAX_INCREMENTAL_UPDATES} updates
+ * so rounding error cannot build up.
+ *
+ * Anti-aliased pixels where neighbouring glyphs overlap are summed rather than composited, which
+ * is the only difference from rasterizing the whole string at once.
+ */
+public class GlyphResponseCache {
+    /**
+     * Draws a single glyph as heights.
+     */
+    public interface GlyphRasterizer {
+        /**
+         * Writes the heights of character c, drawn with its pen at (x, y), into every cell of
+         * plane, which is laid out by sim.
+         */
+        void rasterizeGlyph(char c, float x, float y, FlatGridSim sim, float[] plane);
+    }
+
+    private static final int MAX_INCREMENTAL_UPDATES = 64;
+
+    private static final class Glyph {
+        final char c;
+        final float x;
+        final float y;
+
+        Glyph(char c, float x, float y) {
+            this.c = c;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Glyph)) {
+                return false;
+            }
+            Glyph g = (Glyph) o;
+            return c == g.c && Float.floatToIntBits(x) == Float.floatToIntBits(g.x)
+                    && Float.floatToIntBits(y) == Float.floatToIntBits(g.y);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31*(31*c + Float.floatToIntBits(x)) + Float.floatToIntBits(y);
+        }
+    }
+
+    private final FlatGridSim mSim;
+    private final int mLength;
+    private final float mDiff;
+    private final long mBudgetBytes;
+    private final long mEntryBytes;
+    private final GlyphRasterizer mRasterizer;
+    private final LinkedHashMap<Glyph, float[][]> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final float[][] mSum;
+    private final ArrayList<Glyph> mComposed = new ArrayList<>();
+    private final ArrayList<Glyph> mNext = new ArrayList<>();
+    private final ArrayList<float[][]> mAdded = new ArrayList<>();
+    private final ArrayList<float[][]> mRemoved = new ArrayList<>();
+    private int mUpdates;
+    private int mHits;
+    private int mMisses;
+
+    public GlyphResponseCache(int num_x, int num_y, int length, float diff, long budgetBytes,
+                              GlyphRasterizer rasterizer) {
+        this(new FlatGridSim(num_x, num_y), length, diff, budgetBytes, rasterizer);
+    }
+
+    /**
+     * @param sim simulation used to step glyph responses
+     * @param length number of frames in each sequence
+     * @param diff time step passed to the simulation
+     * @param budgetBytes memory allowed for cached glyph responses
+     */
+    public GlyphResponseCache(FlatGridSim sim, int length, float diff, long budgetBytes,
+                              GlyphRasterizer rasterizer) {
+        mSim = sim;
+        mLength = length;
+        mDiff = diff;
+        mBudgetBytes = budgetBytes;
+        mEntryBytes = 4L*length*mSim.getPlaneSize();
+        mRasterizer = rasterizer;
+        mSum = new float[length][];
+        for (int i=0; i<length; ++i) {
+            mSum[i] = mSim.newPlane();
+        }
+    }
+
+    /**
+     * Memory taken by one cached glyph response for a num_x by num_y grid and sequences of length
+     * frames.
+     */
+    public static long entryBytes(int num_x, int num_y, int length) {
+        return 4L*length*(num_x+2)*(num_y+2);
+    }
+
+    public int getHits() {
+        return mHits;
+    }
+
+    public int getMisses() {
+        return mMisses;
+    }
+
+    public int getCachedGlyphs() {
+        return mEntries.size();
+    }
+
+    /**
+     * Fills every frame of out with the ripple for text, whose glyphs have their pens at xs and
+     * baseline y.
+     */
+    public void fill(RippleSequence out, String text, float[] xs, float y) {
+        mNext.clear();
+        for (int i=0; i<text.length(); ++i) {
+            mNext.add(new Glyph(text.charAt(i), xs[i], y));
+        }
+
+        mAdded.clear();
+        mRemoved.clear();
+        boolean rebuild = ++mUpdates > MAX_INCREMENTAL_UPDATES || !collectChanges();
+        if (rebuild) {
+            mUpdates = 0;
+            mAdded.clear();
+            mRemoved.clear();
+            for (int i=0; i<mNext.size(); ++i) {
+                mAdded.add(response(mNext.get(i)));
+            }
+        }
+        mComposed.clear();
+        mComposed.addAll(mNext);
+
+        // Apply the changes a frame at a time so each plane stays in cache while it is updated
+        // and copied out.
+        for (int i=0; i<mLength; ++i) {
+            float[] sum = mSum[i];
+            if (rebuild) {
+                for (int j=0; j<sum.length; ++j) {
+                    sum[j] = 0;
+                }
+            }
+            for (int k=0; k<mRemoved.size(); ++k) {
+                float[] frame = mRemoved.get(k)[i];
+                for (int j=0; j<sum.length; ++j) {
+                    sum[j] -= frame[j];
+                }
+            }
+            for (int k=0; k<mAdded.size(); ++k) {
+                float[] frame = mAdded.get(k)[i];
+                for (int j=0; j<sum.length; ++j) {
+                    sum[j] += frame[j];
+                }
+            }
+            System.arraycopy(sum, 0, out.getStoredFrame(i), 0, sum.length);
+        }
+        out.finish(text, mDiff);
+    }
+
+    /**
+     * Collects the responses to subtract and add to move the sum from mComposed to mNext.
+     * Returns false if a glyph that has to be removed is no longer cached.
+     */
+    private boolean collectChanges() {
+        for (int i=0; i<mComposed.size(); ++i) {
+            Glyph g = mComposed.get(i);
+            if (!mNext.contains(g)) {
+                float[][] response = mEntries.get(g);
+                if (response == null) {
+                    return false;
+                }
+                mRemoved.add(response);
+            }
+        }
+        for (int i=0; i<mNext.size(); ++i) {
+            Glyph g = mNext.get(i);
+            if (!mComposed.contains(g)) {
+                mAdded.add(response(g));
+            }
+        }
+        return true;
+    }
+
+    private float[][] response(Glyph g) {
+        float[][] frames = mEntries.get(g);
+        if (frames != null) {
+            mHits++;
+            return frames;
+        }
+        mMisses++;
+
+        frames = evictForNewEntry();
+        mRasterizer.rasterizeGlyph(g.c, g.x, g.y, mSim, frames[0]);
+        System.arraycopy(frames[0], 0, frames[1], 0, frames[0].length);
+        mSim.beginSequence();
+        for (int i=2; i<mLength; ++i) {
+            mSim.step(frames[i-2], frames[i-1], frames[i], mDiff);
+        }
+        mEntries.put(g, frames);
+        return frames;
+    }
+
+    /**
+     * Evicts least recently used responses until another fits in the budget, reusing the
+     * storage of one of them unless it is part of the update in progress.
+     */
+    private float[][] evictForNewEntry() {
+        float[][] reuse = null;
+        Iterator<Map.Entry<Glyph, float[][]>> it = mEntries.entrySet().iterator();
+        while (it.hasNext() && (mEntries.size()+1)*mEntryBytes > mBudgetBytes) {
+            float[][] evicted = it.next().getValue();
+            it.remove();
+            if (!mAdded.contains(evicted) && !mRemoved.contains(evicted)) {
+                reuse = evicted;
+            }
+        }
+        if (reuse != null) {
+            return reuse;
+        }
+        float[][] frames = new float[mLength][];
+        for (int i=0; i<mLength; ++i) {
+            frames[i] = mSim.newPlane();
+        }
+        return frames;
+    }
+}
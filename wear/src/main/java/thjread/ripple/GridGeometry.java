@@ -0,0 +1,88 @@
+package thjread.ripple;
+
+/**
+ * Screen layout and line colours for drawing a grid of num_x by num_y heights. Kept free of
+ * framework classes so the per-line arithmetic can be measured and tested on a plain JVM.
+ */
+public class GridGeometry {
+    public int num_x;
+    public int num_y;
+    public int originX;
+    public int originY;
+    public float x_inc;
+    public float y_inc;
+
+    public void layout(int left, int width, int bottom, int num_x, int num_y) {
+        this.num_x = num_x;
+        this.num_y = num_y;
+        originX = left;
+        x_inc = ((float) width)/(num_x+1);
+        y_inc = x_inc;
+        originY = (int) (bottom/2 - ((num_y+1)/2)*y_inc);
+    }
+
+    /**
+     * Screen x of grid column x.
+     */
+    public float pointX(int x) {
+        return originX + (x+1)*x_inc;
+    }
+
+    /**
+     * Screen y of grid row y, displaced upwards by height.
+     */
+    public float pointY(int y, float height) {
+        return originY + (y+1)*y_inc - height;
+    }
+
+    /**
+     * Grid column nearest screen x, which may be outside the grid.
+     */
+    public int cellX(float x) {
+        return Math.round((x - originX)/x_inc) - 1;
+    }
+
+    /**
+     * Grid row nearest screen y, ignoring displacement, which may be outside the grid.
+     */
+    public int cellY(float y) {
+        return Math.round((y - originY)/y_inc) - 1;
+    }
+
+    /**
+     * Colour of the line between two heights: grey for positive, blue for negative.
+     */
+    public static int lineColor(float a, float b, float scale) {
+        return colorForLevel(lineLevel(a, b, scale));
+    }
+
+    /**
+     * Colour a level is drawn in with a palette of buckets of 2^shift levels, as
+     * {@link GridLineBatch} draws it: clamped to +-{@link GridLineBatch#MAX_LEVEL}, then rounded
+     * towards zero to its bucket's smallest magnitude.
+     */
+    public static int paletteColor(int level, int shift) {
+        int magnitude = Math.min(Math.abs(level), GridLineBatch.MAX_LEVEL) >> shift << shift;
+        return colorForLevel(level >= 0 ? magnitude : -magnitude);
+    }
+
+    /**
+     * Signed brightness of the line between two heights; positive is grey, negative is blue.
+     */
+    public static int lineLevel(float a, float b, float scale) {
+        float val = 0.5f*(a + b) * scale;
+        return (int) (255/10*val);
+    }
+
+    /**
+     * Colour for a signed level, matching Color.rgb(col, col, col) for positive levels and
+     * Color.rgb(0, 0, -col) for negative ones.
+     */
+    public static int colorForLevel(int col) {
+        if (col >= 0) {
+            return 0xff000000 | (col << 16) | (col << 8) | col;
+        } else {
+            return 0xff000000 | -col;
+        }
+    }
+}
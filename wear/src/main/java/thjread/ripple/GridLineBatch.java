@@ -0,0 +1,147 @@
+package thjread.ripple;
+
+/**
+ * The lines of one grid frame, grouped by colour so that each group can be drawn with a single
+ * Canvas.drawLines call.
+ *
+ * Line levels are quantized to a fixed palette: levels of each sign are divided into buckets of
+ * 2^shift consecutive values and every line in a bucket is drawn with the bucket's smallest magnitude,
+ * much as the original (int) cast already truncated. Lines are staged in grid order and then
+ * counting-sorted by bucket into one point array, so bucket b occupies a contiguous slice of
+ * {@link #getPoints()}. All arrays are allocated up front for the largest grid seen.
+ */
+public class GridLineBatch {
+    public static final int MAX_LEVEL = 255;
+
+    private final int shift;
+    private final int bucketsPerSign;
+    private final int[] colors;
+    private final int[] counts;
+    private final int[] offsets;
+    private float[] staged = new float[0];
+    private int[] bucketOf = new int[0];
+    private float[] points = new float[0];
+    private int numLines;
+
+    public GridLineBatch(int shift) {
+        this.shift = shift;
+        bucketsPerSign = (MAX_LEVEL >> shift) + 1;
+        colors = new int[2*bucketsPerSign];
+        counts = new int[2*bucketsPerSign];
+        offsets = new int[2*bucketsPerSign];
+        for (int b=0; b<bucketsPerSign; ++b) {
+            colors[b] = GridGeometry.colorForLevel(b << shift);
+            colors[bucketsPerSign + b] = GridGeometry.colorForLevel(-(b << shift));
+        }
+    }
+
+    /**
+     * Makes room for the lines of a num_x by num_y grid.
+     */
+    public void ensureCapacity(int num_x, int num_y) {
+        int lines = 2*(num_x-1)*(num_y-1);
+        if (bucketOf.length < lines) {
+            staged = new float[4*lines];
+            bucketOf = new int[lines];
+            points = new float[4*lines];
+        }
+    }
+
+    /**
+     * Lays out the lines drawGrid draws for a plane of sim, already laid out in g, and sorts them
+     * by colour.
+     */
+    public void build(GridGeometry g, FlatGridSim sim, float[] plane, float scale) {
+        int num_x = sim.getNumX();
+        int num_y = sim.getNumY();
+        int stride = sim.getStride();
+        ensureCapacity(num_x, num_y);
+        numLines = 0;
+        for (int x=0; x<num_x-1; ++x) {
+            for (int y = 0; y < num_y-1; ++y) {
+                int i = sim.index(x, y);
+                float here = plane[i];
+                float below = plane[i+stride];
+                float right = plane[i+1];
+                float px = g.pointX(x);
+                float py = g.pointY(y, here);
+                add(px, py, px, g.pointY(y+1, below), GridGeometry.lineLevel(here, below, scale));
+                add(px, py, g.pointX(x+1), g.pointY(y, right), GridGeometry.lineLevel(here, right, scale));
+            }
+        }
+        sort();
+    }
+
+    private void add(float x0, float y0, float x1, float y1, int level) {
+        int n = numLines++;
+        staged[4*n] = x0;
+        staged[4*n+1] = y0;
+        staged[4*n+2] = x1;
+        staged[4*n+3] = y1;
+        bucketOf[n] = bucket(level);
+    }
+
+    private int bucket(int level) {
+        if (level >= 0) {
+            return Math.min(level, MAX_LEVEL) >> shift;
+        } else {
+            return bucketsPerSign + (Math.min(-level, MAX_LEVEL) >> shift);
+        }
+    }
+
+    private void sort() {
+        int buckets = counts.length;
+        for (int b=0; b<buckets; ++b) {
+            counts[b] = 0;
+        }
+        for (int n=0; n<numLines; ++n) {
+            counts[bucketOf[n]]++;
+        }
+        int offset = 0;
+        for (int b=0; b<buckets; ++b) {
+            offsets[b] = offset;
+            offset += 4*counts[b];
+        }
+        for (int n=0; n<numLines; ++n) {
+            int dst = offsets[bucketOf[n]];
+            points[dst] = staged[4*n];
+            points[dst+1] = staged[4*n+1];
+            points[dst+2] = staged[4*n+2];
+            points[dst+3] = staged[4*n+3];
+            offsets[bucketOf[n]] = dst + 4;
+        }
+        for (int b=0; b<buckets; ++b) {
+            offsets[b] -= 4*counts[b];
+        }
+    }
+
+    public int getNumLines() {
+        return numLines;
+    }
+
+    public int getBucketCount() {
+        return counts.length;
+    }
+
+    public int getBucketColor(int b) {
+        return colors[b];
+    }
+
+    /**
+     * Index of the first float of bucket b in {@link #getPoints()}.
+     */
+    public int getBucketOffset(int b) {
+        return offsets[b];
+    }
+
+    /**
+     * Number of floats (four per line) in bucket b.
+     */
+    public int getBucketLength(int b) {
+        return 4*counts[b];
+    }
+
+    public float[] getPoints() {
+        return points;
+    }
+}
@@ -0,0 +1,119 @@
+package thjread.ripple;
+
+/**
+ * Draws the lines of a grid frame straight into an ARGB pixel array, for blitting with one
+ * Canvas.drawBitmap call instead of passing every line through Canvas.drawLines.
+ *
+ * Lines are the ones {@link GridLineBatch} lays out, in the colours of a GridLineBatch with the
+ * same palette shift, drawn one pixel wide without anti-aliasing as a hairline Paint
+ * draws them. Each is stepped along its longer axis in 16.16 fixed point, one pixel per column
+ * or row, from the pixel containing its start up to but not including the pixel containing its
+ * end, so lines meeting at a grid point don't draw it twice. Pixels off the buffer are clipped.
+ *
+ * The buffer is allocated for the largest size seen and reused.
+ */
+public class GridRasterizer {
+    private final int mShift;
+    private int mWidth;
+    private int mHeight;
+    private int[] mPixels = new int[0];
+
+    /**
+     * @param shift palette shift, as for {@link GridLineBatch#GridLineBatch(int)}
+     */
+    public GridRasterizer(int shift) {
+        mShift = shift;
+    }
+
+    /**
+     * Makes the buffer width by height pixels, reallocating only if it has grown.
+     */
+    public void setSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        if (mPixels.length < width*height) {
+            mPixels = new int[width*height];
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Pixels, row by row with a stride of {@link #getWidth()}. The array may be longer than
+     * width*height.
+     */
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    /**
+     * Fills the buffer with background and draws the grid lines of a plane of sim, laid out in
+     * g in pixel coordinates.
+     */
+    public void draw(GridGeometry g, FlatGridSim sim, float[] plane, float scale, int background) {
+        int size = mWidth*mHeight;
+        for (int i=0; i<size; ++i) {
+            mPixels[i] = background;
+        }
+        int num_x = sim.getNumX();
+        int num_y = sim.getNumY();
+        int stride = sim.getStride();
+        for (int x=0; x<num_x-1; ++x) {
+            for (int y = 0; y < num_y-1; ++y) {
+                int i = sim.index(x, y);
+                float here = plane[i];
+                float below = plane[i+stride];
+                float right = plane[i+1];
+                float px = g.pointX(x);
+                float py = g.pointY(y, here);
+                line(px, py, px, g.pointY(y+1, below), GridGeometry.paletteColor(
+                        GridGeometry.lineLevel(here, below, scale), mShift));
+                line(px, py, g.pointX(x+1), g.pointY(y, right), GridGeometry.paletteColor(
+                        GridGeometry.lineLevel(here, right, scale), mShift));
+            }
+        }
+    }
+
+    /**
+     * Draws the line from (x0, y0) to (x1, y1), in pixel coordinates, in color.
+     */
+    public void line(float x0, float y0, float x1, float y1, int color) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        if (Math.abs(dx) >= Math.abs(dy)) {
+            span(x0, y0, x1, dy/dx, mWidth, mHeight, 1, mWidth, color);
+        } else {
+            span(y0, x0, y1, dx/dy, mHeight, mWidth, mWidth, 1, color);
+        }
+    }
+
+    /**
+     * Draws a line stepped along its major axis from a0 to a1, with the minor coordinate b0 at
+     * a0 changing by slope per pixel. Pixel (a, b) is at a*aStep + b*bStep.
+     */
+    private void span(float a0, float b0, float a1, float slope, int aSize, int bSize,
+                      int aStep, int bStep, int color) {
+        int start = (int) Math.floor(a0);
+        int end = (int) Math.floor(a1);
+        if (start == end) {
+            return;
+        }
+        int dir = end > start ? 1 : -1;
+        // Minor coordinate at the centre of the first pixel, and its change per pixel.
+        int b = (int) ((b0 + (start + 0.5f - a0)*slope)*65536);
+        int db = (int) (dir*slope*65536);
+        for (int a=start; a != end; a += dir) {
+            int minor = b >> 16;
+            if (a >= 0 && a < aSize && minor >= 0 && minor < bSize) {
+                mPixels[a*aStep + minor*bStep] = color;
+            }
+            b += db;
+        }
+    }
+}
@@ -1,43 +1,55 @@
 package thjread.ripple;
 
-import android.graphics.Bitmap;
-import android.util.Log;
-
 /**
  * Created by tread on 12/11/16.
+ *
+ * Adapter from the float[record][y][x] layout onto {@link FlatGridSim}. The last two frames
+ * simulated are kept as flat planes, so stepping through a record one index at a time only
+ * copies each new frame out rather than re-reading its inputs. Records are assumed to be written
+ * only through this class between consecutive calls.
  */
 
 public class GridSim {
     private int num_x;
     private int num_y;
+    private FlatGridSim mFlat;
+    private float[] mOld;
+    private float[] mHere;
+    private float[][][] mRecord;
+    private int mNextIndex;
+    private final HeightfieldReader mReader = new HeightfieldReader();
 
     public void initGrid(int num_x, int num_y) {
         this.num_x = num_x;
         this.num_y = num_y;
+        mFlat = new FlatGridSim(num_x, num_y);
+        mOld = mFlat.newPlane();
+        mHere = mFlat.newPlane();
+        mRecord = null;
     }
 
-    public void setRecordInit(float[][][] record, Bitmap bitmap) {
-        for (int y=0; y<num_y; ++y) {
-            for (int x=0; x<num_x; ++x) {
-                record[0][y][x] = record[1][y][x] = ((float) (bitmap.getPixel(x, y) & 0xff))*10/255;
-            }
+    public void setRecordInit(float[][][] record, HeightfieldSource source) {
+        mReader.read(source, mFlat, mOld);
+        mFlat.copyToGrid(mOld, record[0]);
+        mFlat.copyToGrid(mOld, record[1]);
+        if (record == mRecord) {
+            mRecord = null;
         }
     }
 
     public void simulateGrid(float[][][] array, int index, float diff) {
-        for (int y=0; y<num_y; ++y) {
-            for (int x=0; x<num_x; ++x) {
-                float here = array[index-1][y][x];
-                float old = array[index-2][y][x];
+        if (array != mRecord || index != mNextIndex) {
+            mFlat.copyFromGrid(array[index-2], mOld);
+            mFlat.copyFromGrid(array[index-1], mHere);
+        }
 
-                float left = x == 0 ? here : array[index-1][y][x-1];
-                float right = x == num_x-1 ? here : array[index-1][y][x+1];
-                float up = y == 0 ? here : array[index-1][y-1][x];
-                float down = y == num_y-1 ? here : array[index-1][y+1][x];
-                float lagrangian = (right-here)-(here-left) + (down-here)-(here-up);
+        mFlat.step(mOld, mHere, mOld, diff);
+        float[] t = mOld;
+        mOld = mHere;
+        mHere = t;
+        mFlat.copyToGrid(mHere, array[index]);
 
-                array[index][y][x] = 0.35f*lagrangian*diff + 2*here - old;
-            }
-        }
+        mRecord = array;
+        mNextIndex = index+1;
     }
 }
@@ -0,0 +1,33 @@
+package thjread.ripple;
+
+/**
+ * Reads initial heights from a {@link HeightfieldSource} with one bulk pixel copy, rather than a
+ * call per cell. Owns its pixel buffer, so each thread needs its own reader.
+ */
+public class HeightfieldReader {
+    private int[] mPixels = new int[0];
+
+    /**
+     * Writes the heights of the top left num_x by num_y pixels of source into plane, which is
+     * laid out by sim.
+     */
+    public void read(HeightfieldSource source, FlatGridSim sim, float[] plane) {
+        int num_x = sim.getNumX();
+        int num_y = sim.getNumY();
+        if (source.getWidth() < num_x || source.getHeight() < num_y) {
+            throw new IllegalArgumentException("Source is " + source.getWidth() + "x"
+                    + source.getHeight() + ", grid is " + num_x + "x" + num_y);
+        }
+        if (mPixels.length < num_x*num_y) {
+            mPixels = new int[num_x*num_y];
+        }
+        source.getPixels(mPixels, 0, num_x, 0, 0, num_x, num_y);
+        for (int y=0; y<num_y; ++y) {
+            int in = y*num_x;
+            int out = sim.index(0, y);
+            for (int x=0; x<num_x; ++x) {
+                plane[out + x] = FlatGridSim.pixelHeight(mPixels[in + x]);
+            }
+        }
+    }
+}
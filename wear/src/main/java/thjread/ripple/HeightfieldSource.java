@@ -0,0 +1,17 @@
+package thjread.ripple;
+
+/**
+ * Anything that can supply the pixels initial heights are read from, such as a rendered bitmap.
+ * Heights come from the low byte of each ARGB pixel, see {@link FlatGridSim#pixelHeight(int)}.
+ */
+public interface HeightfieldSource {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Copies a rectangle of ARGB pixels into pixels, row by row, in the same way as
+     * android.graphics.Bitmap#getPixels.
+     */
+    void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+}
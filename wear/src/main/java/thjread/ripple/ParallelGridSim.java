@@ -0,0 +1,160 @@
+package thjread.ripple;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link FlatGridSim} whose steps are split into horizontal stripes of rows, one per core.
+ *
+ * A step is published by bumping a generation counter, and the calling thread and persistent
+ * worker threads, one fewer than the stripes, then claim stripes until none are left. The step
+ * finishes when every stripe has counted down, so there is one barrier per step and nothing is
+ * allocated. Waiting threads spin briefly, since a sequence is stepped many times in a row, and
+ * then park. Since the caller steps any stripe no worker has claimed, a step still finishes if
+ * the workers quit while it is being published.
+ *
+ * Steps from different threads are serialized. Results are identical to the serial kernel.
+ */
+public class ParallelGridSim extends FlatGridSim {
+    /**
+     * Grids with fewer cells than this step faster on one core than it takes to hand them out.
+     */
+    public static final int MIN_PARALLEL_CELLS = 16*1024;
+    private static final int MIN_STRIPE_ROWS = 8;
+    private static final int SPIN = 4096;
+
+    private final int mStripes;
+    private final Thread[] mWorkers;
+    private final AtomicInteger mPending = new AtomicInteger();
+    private final AtomicInteger mNextStripe = new AtomicInteger();
+    private volatile int mGeneration;
+    private volatile boolean mQuit;
+    private Thread mCaller;
+    private float[] mOld;
+    private float[] mHere;
+    private float[] mOut;
+    private float mDiff;
+
+    /**
+     * Number of stripes worth using for a num_x by num_y grid on this device; 1 if it should be
+     * stepped serially.
+     */
+    public static int stripesFor(int num_x, int num_y) {
+        return stripesFor(num_x, num_y, Runtime.getRuntime().availableProcessors());
+    }
+
+    static int stripesFor(int num_x, int num_y, int cores) {
+        if (num_x*num_y < MIN_PARALLEL_CELLS) {
+            return 1;
+        }
+        return Math.max(1, Math.min(cores, num_y/MIN_STRIPE_ROWS));
+    }
+
+    public ParallelGridSim(int num_x, int num_y, int stripes) {
+        super(num_x, num_y);
+        mStripes = Math.max(1, Math.min(stripes, num_y));
+        mWorkers = new Thread[mStripes-1];
+        for (int i=0; i<mWorkers.length; ++i) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "RippleSim-" + (i+1));
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    public int getStripes() {
+        return mStripes;
+    }
+
+    /**
+     * Stops the worker threads. Later steps run serially on the calling thread.
+     */
+    public void quit() {
+        mQuit = true;
+        for (Thread worker : mWorkers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    @Override
+    public void initGrid(int num_x, int num_y) {
+        if (mWorkers != null && num_y < mStripes) {
+            throw new IllegalArgumentException("Fewer rows than stripes");
+        }
+        super.initGrid(num_x, num_y);
+    }
+
+    @Override
+    public synchronized void step(float[] old, float[] here, float[] out, float diff) {
+        if (mWorkers.length == 0 || mQuit) {
+            super.step(old, here, out, diff);
+            return;
+        }
+        mOld = old;
+        mHere = here;
+        mOut = out;
+        mDiff = diff;
+        mCaller = Thread.currentThread();
+        mPending.set(mStripes);
+        mNextStripe.set(0);
+        beforePublish();
+        mGeneration++;
+        for (Thread worker : mWorkers) {
+            LockSupport.unpark(worker);
+        }
+
+        stepStripes();
+
+        for (int spin=0; mPending.get() != 0; ++spin) {
+            if (spin >= SPIN) {
+                LockSupport.park(this);
+            }
+        }
+        mOld = mHere = mOut = null;
+    }
+
+    /**
+     * Called by step after deciding to step in parallel and before handing the step out, for
+     * tests to quit in between.
+     */
+    void beforePublish() {
+    }
+
+    /**
+     * Steps stripes of the current step until none are left unclaimed.
+     */
+    private void stepStripes() {
+        for (int stripe=mNextStripe.getAndIncrement(); stripe<mStripes;
+             stripe=mNextStripe.getAndIncrement()) {
+            stepStripe(stripe);
+            if (mPending.decrementAndGet() == 0) {
+                LockSupport.unpark(mCaller);
+            }
+        }
+    }
+
+    private void stepStripe(int stripe) {
+        int num_y = getNumY();
+        stepRows(mOld, mHere, mOut, mDiff, num_y*stripe/mStripes, num_y*(stripe+1)/mStripes);
+    }
+
+    private void work() {
+        int seen = 0;
+        while (true) {
+            for (int spin=0; mGeneration == seen && !mQuit; ++spin) {
+                if (spin >= SPIN) {
+                    LockSupport.park(this);
+                }
+            }
+            if (mGeneration == seen) {
+                return;
+            }
+            seen = mGeneration;
+            stepStripes();
+        }
+    }
+}
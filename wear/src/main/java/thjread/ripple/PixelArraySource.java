@@ -0,0 +1,45 @@
+package thjread.ripple;
+
+/**
+ * Heightfield source backed by a plain ARGB int array, laid out row by row.
+ */
+public class PixelArraySource implements HeightfieldSource {
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mPixels;
+
+    /**
+     * Wraps pixels, which is used directly rather than copied.
+     */
+    public PixelArraySource(int[] pixels, int width, int height) {
+        if (pixels.length < width*height) {
+            throw new IllegalArgumentException("Need " + width*height + " pixels, got "
+                    + pixels.length);
+        }
+        mWidth = width;
+        mHeight = height;
+        mPixels = pixels;
+    }
+
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width,
+                          int height) {
+        for (int row=0; row<height; ++row) {
+            System.arraycopy(mPixels, (y+row)*mWidth + x, pixels, offset + row*stride, width);
+        }
+    }
+}
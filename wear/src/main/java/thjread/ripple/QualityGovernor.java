@@ -0,0 +1,156 @@
+package thjread.ripple;
+
+/**
+ * Chooses grid resolution, simulation rate and redraw rate from measured frame costs.
+ *
+ * The watch face reports how long each interactive frame took with {@link #addFrame(long)} and
+ * asks for a decision at every ripple boundary with {@link #onBoundary()}. The share of time spent
+ * drawing is compared with a budget, which bounds both frame time and battery use:
+ *
+ * - If a ripple went over budget, or more than one frame in ten overran its redraw interval, the
+ *   next cheaper level is used straight away.
+ * - If the next richer level is predicted to fit well within budget for several ripples running,
+ *   it is tried. The prediction scales the measured cost by the change in grid cells and redraw
+ *   rate.
+ *
+ * The gap between the two thresholds, and a backoff that grows each time a richer level is tried
+ * and immediately abandoned, keep the level from oscillating. Nothing here depends on Android, so
+ * it can be driven by a synthetic cost model.
+ */
+public class QualityGovernor {
+    /**
+     * One combination of settings. Levels are ordered from cheapest to richest.
+     */
+    public static final class Level {
+        public final int num_x;
+        public final int num_y;
+        /** Simulation steps per second of ripple. */
+        public final int simRate;
+        /** Time between redraws in interactive mode. */
+        public final long redrawMs;
+
+        public Level(int num_x, int num_y, int simRate, long redrawMs) {
+            this.num_x = num_x;
+            this.num_y = num_y;
+            this.simRate = simRate;
+            this.redrawMs = redrawMs;
+        }
+
+        /**
+         * Share of time spent drawing at this level if frames cost costNanos each.
+         */
+        float load(double costNanos) {
+            return (float) (costNanos/(redrawMs*1000000.0));
+        }
+    }
+
+    private static final int MIN_FRAMES = 10;
+    private static final float UPGRADE_MARGIN = 0.6f;
+    private static final int UPGRADE_RIPPLES = 3;
+    private static final int MAX_BACKOFF = 64;
+
+    private final Level[] mLevels;
+    private final float mBudget;
+    private int mLevel;
+    private long mCostSum;
+    private int mFrames;
+    private int mOverruns;
+    private int mGoodRipples;
+    private int mBackoff = 1;
+    private int mSinceChange;
+    private boolean mLastWasUpgrade;
+
+    /**
+     * @param levels settings to choose between, cheapest first
+     * @param initial index of the level to start at
+     * @param budget largest share of time, between 0 and 1, to spend drawing
+     */
+    public QualityGovernor(Level[] levels, int initial, float budget) {
+        if (levels.length == 0 || initial < 0 || initial >= levels.length) {
+            throw new IllegalArgumentException("No such level " + initial);
+        }
+        mLevels = levels;
+        mLevel = initial;
+        mBudget = budget;
+    }
+
+    public Level getLevel() {
+        return mLevels[mLevel];
+    }
+
+    public int getLevelIndex() {
+        return mLevel;
+    }
+
+    /**
+     * Records the time taken by one interactive frame.
+     */
+    public void addFrame(long costNanos) {
+        mCostSum += costNanos;
+        mFrames++;
+        if (costNanos > mLevels[mLevel].redrawMs*1000000) {
+            mOverruns++;
+        }
+    }
+
+    /**
+     * Decides the level for the next ripple from the frames recorded since the last call.
+     * Returns true if it changed. Ripples with too few frames to judge, such as those cut short
+     * by ambient mode, are ignored.
+     */
+    public boolean onBoundary() {
+        if (mFrames < MIN_FRAMES) {
+            resetWindow();
+            return false;
+        }
+        Level level = mLevels[mLevel];
+        double mean = (double) mCostSum/mFrames;
+        boolean over = level.load(mean) > mBudget || mOverruns*10 > mFrames;
+        resetWindow();
+        mSinceChange++;
+
+        if (over) {
+            mGoodRipples = 0;
+            if (mLevel == 0) {
+                return false;
+            }
+            if (mLastWasUpgrade && mSinceChange <= 1) {
+                mBackoff = Math.min(2*mBackoff, MAX_BACKOFF);
+            }
+            return change(mLevel - 1, false);
+        }
+
+        if (mLevel+1 < mLevels.length) {
+            Level next = mLevels[mLevel+1];
+            double scale = (double) (next.num_x*next.num_y)/(level.num_x*level.num_y);
+            if (next.load(mean*scale) < mBudget*UPGRADE_MARGIN) {
+                mGoodRipples++;
+            } else {
+                mGoodRipples = 0;
+            }
+            if (mGoodRipples >= UPGRADE_RIPPLES*mBackoff) {
+                return change(mLevel + 1, true);
+            }
+        }
+        if (mLastWasUpgrade && mSinceChange > 1) {
+            // The last upgrade held, so the next one need not wait as long.
+            mBackoff = Math.max(1, mBackoff/2);
+            mLastWasUpgrade = false;
+        }
+        return false;
+    }
+
+    private boolean change(int level, boolean upgrade) {
+        mLevel = level;
+        mGoodRipples = 0;
+        mSinceChange = 0;
+        mLastWasUpgrade = upgrade;
+        return true;
+    }
+
+    private void resetWindow() {
+        mCostSum = 0;
+        mFrames = 0;
+        mOverruns = 0;
+    }
+}
@@ -0,0 +1,518 @@
+package thjread.ripple;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The frames of one ripple as 8 or 16 bit fixed-point heights, in a binary form that is the same
+ * in memory and on disk, so it can be written out as is and memory-mapped back.
+ *
+ * Heights are stored in units of 2^-{@link #getFracBits()}, saturating at +-{@link #RANGE}, which
+ * is beyond any height a ripple from 0 to 10 reaches. At 16 bits that is a step of 1/2048, well
+ * below anything drawn; at 8 bits 1/8, under one colour bucket and an eighth of a pixel.
+ *
+ * With a key interval, only every key interval'th frame is stored whole. The rest are stored as
+ * their change from the frame before, zigzag varint coded with runs of unchanged cells collapsed,
+ * so frames where little moves take little space. Decoding such a frame builds on the whole frame
+ * before it; {@link Decoder} keeps the last frame it decoded, so that playing forwards or
+ * backwards usually applies just one frame's changes.
+ *
+ * Layout, little-endian: a header of magic, version, num_x, num_y, length, bits, key interval and
+ * the text as a length-prefixed UTF-8 string; the byte offset of each frame's data from the start
+ * of the buffer, plus one for the end; then each frame's data.
+ */
+public final class QuantizedFrames {
+    public static final float RANGE = 16;
+
+    private static final int MAGIC = 0x51504c52;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 7;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int num_x;
+    private final int num_y;
+    private final int mLength;
+    private final int mBits;
+    private final int mKeyInterval;
+    private final String mText;
+    private final int mOffsets;
+
+    private QuantizedFrames(ByteBuffer buffer) {
+        mBuffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < 4*(HEADER_INTS+1) || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not quantized frames");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unknown version " + buffer.getInt(4));
+        }
+        num_x = buffer.getInt(8);
+        num_y = buffer.getInt(12);
+        mLength = buffer.getInt(16);
+        mBits = buffer.getInt(20);
+        mKeyInterval = buffer.getInt(24);
+        if (num_x <= 0 || num_y <= 0 || mLength <= 0 || (mBits != 8 && mBits != 16)
+                || mKeyInterval < 0) {
+            throw new IllegalArgumentException("Bad header");
+        }
+        int textLength = buffer.getInt(4*HEADER_INTS);
+        int textStart = 4*(HEADER_INTS+1);
+        // In long, so that corrupt lengths can't overflow into passing.
+        if (textLength < 0 || textLength > buffer.limit() - textStart
+                || (long) textStart + textLength + 4L*(mLength+1) > buffer.limit()) {
+            throw new IllegalArgumentException("Truncated header");
+        }
+        mOffsets = textStart + textLength;
+        byte[] text = new byte[textLength];
+        for (int i=0; i<textLength; ++i) {
+            text[i] = buffer.get(textStart + i);
+        }
+        mText = textLength == 0 ? null : new String(text, UTF_8);
+        if (getFrameOffset(mLength) > buffer.limit()) {
+            throw new IllegalArgumentException("Truncated frames");
+        }
+    }
+
+    /**
+     * Checks that every frame lies within the buffer and decodes to exactly one value per cell,
+     * so that decoding can't read outside it.
+     */
+    private void validate() {
+        long n = (long) num_x*num_y;
+        int previous = mOffsets + 4*(mLength+1);
+        for (int index=0; index<mLength; ++index) {
+            int start = getFrameOffset(index);
+            int end = getFrameOffset(index+1);
+            if (start != previous || end < start || end > mBuffer.limit()) {
+                throw new IllegalArgumentException("Bad offset for frame " + index);
+            }
+            // Frame 0 is whole, so once it passes the cells fit in the buffer, and in an int.
+            if (isKeyFrame(index) ? end - start != mBits/8*n
+                    : !Decoder.applyChanges(this, index, null, 0)) {
+                throw new IllegalArgumentException("Bad data for frame " + index);
+            }
+            previous = end;
+        }
+    }
+
+    /**
+     * Reads frames from buffer, which holds exactly what {@link #writeTo} wrote, checking every
+     * frame.
+     *
+     * @throws IllegalArgumentException if it doesn't
+     */
+    public static QuantizedFrames wrap(ByteBuffer buffer) {
+        QuantizedFrames frames = new QuantizedFrames(buffer);
+        frames.validate();
+        return frames;
+    }
+
+    /**
+     * Maps frames written by {@link #writeTo} to file into memory, read only.
+     */
+    public static QuantizedFrames map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            try {
+                return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + ": " + e.getMessage());
+            }
+        } finally {
+            // The mapping stays valid after the file is closed.
+            raf.close();
+        }
+    }
+
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(0);
+        buffer.limit(getByteSize());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public int getNumX() {
+        return num_x;
+    }
+
+    public int getNumY() {
+        return num_y;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public int getBits() {
+        return mBits;
+    }
+
+    /**
+     * Heights are stored in units of 2^-fracBits.
+     */
+    public int getFracBits() {
+        return fracBits(mBits);
+    }
+
+    /**
+     * Frames between whole frames, or 0 if every frame is whole.
+     */
+    public int getKeyInterval() {
+        return mKeyInterval;
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    /**
+     * Bytes taken by the frames, header included.
+     */
+    public int getByteSize() {
+        return getFrameOffset(mLength);
+    }
+
+    boolean isKeyFrame(int index) {
+        return mKeyInterval == 0 || index % mKeyInterval == 0;
+    }
+
+    int getFrameOffset(int index) {
+        return mBuffer.getInt(mOffsets + 4*index);
+    }
+
+    ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    static int fracBits(int bits) {
+        return bits - 5;
+    }
+
+    /**
+     * Writes frames into reusable storage. Add each frame's heights in order, then
+     * {@link #finish()}.
+     */
+    public static final class Encoder {
+        private final int num_x;
+        private final int num_y;
+        private final int mBits;
+        private final int mKeyInterval;
+        private final float mScale;
+        private final int mMax;
+        private final int[] mPrevious;
+        private final int[] mCurrent;
+        private ByteBuffer mBuffer;
+        private int mLength;
+        private int mFrame;
+        private int mOffsets;
+        private int mPosition;
+        private float mLastChange;
+
+        /**
+         * @param bits 8 or 16
+         * @param keyInterval frames between whole frames, or 0 to store every frame whole
+         */
+        public Encoder(int num_x, int num_y, int bits, int keyInterval) {
+            if (bits != 8 && bits != 16) {
+                throw new IllegalArgumentException("bits must be 8 or 16, not " + bits);
+            }
+            this.num_x = num_x;
+            this.num_y = num_y;
+            mBits = bits;
+            mKeyInterval = keyInterval;
+            mScale = 1 << fracBits(bits);
+            mMax = (1 << (bits-1)) - 1;
+            mPrevious = new int[num_x*num_y];
+            mCurrent = new int[num_x*num_y];
+            mBuffer = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Starts a ripple of length frames made from text, which may be null.
+         */
+        public void begin(String text, int length) {
+            byte[] textBytes = text == null ? new byte[0] : text.getBytes(UTF_8);
+            mOffsets = 4*(HEADER_INTS+1) + textBytes.length;
+            mLength = length;
+            mFrame = 0;
+            mPosition = mOffsets + 4*(length+1);
+            // Room for the header and a first frame; add grows it from there.
+            ensureCapacity(mPosition + 3*num_x*num_y);
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(4, VERSION);
+            mBuffer.putInt(8, num_x);
+            mBuffer.putInt(12, num_y);
+            mBuffer.putInt(16, length);
+            mBuffer.putInt(20, mBits);
+            mBuffer.putInt(24, mKeyInterval);
+            mBuffer.putInt(4*HEADER_INTS, textBytes.length);
+            for (int i=0; i<textBytes.length; ++i) {
+                mBuffer.put(4*(HEADER_INTS+1) + i, textBytes[i]);
+            }
+        }
+
+        /**
+         * Appends the next frame, a plane laid out by sim.
+         */
+        public void add(FlatGridSim sim, float[] plane) {
+            int n = 0;
+            int max = mMax;
+            float scale = mScale;
+            for (int y=0; y<num_y; ++y) {
+                int start = sim.index(0, y);
+                for (int i=start; i<start+num_x; ++i) {
+                    int q = Math.round(plane[i]*scale);
+                    mCurrent[n++] = q > max ? max : (q < -max ? -max : q);
+                }
+            }
+
+            mBuffer.putInt(mOffsets + 4*mFrame, mPosition);
+            if (mKeyInterval == 0 || mFrame % mKeyInterval == 0) {
+                ensureCapacity(mPosition + mBits/8*n);
+                writeWhole(n);
+            } else {
+                ensureCapacity(mPosition + 3*n);
+                writeChanges(n);
+            }
+            int change = 0;
+            if (mFrame > 0) {
+                for (int i=0; i<n; ++i) {
+                    change = Math.max(change, Math.abs(mCurrent[i] - mPrevious[i]));
+                }
+            }
+            mLastChange = change/scale;
+            System.arraycopy(mCurrent, 0, mPrevious, 0, n);
+            mFrame++;
+        }
+
+        /**
+         * Largest change of any cell, after quantization, in the last frame added.
+         */
+        public float getLastChange() {
+            return mLastChange;
+        }
+
+        private void writeWhole(int n) {
+            ByteBuffer b = mBuffer;
+            int p = mPosition;
+            if (mBits == 8) {
+                for (int i=0; i<n; ++i) {
+                    b.put(p++, (byte) mCurrent[i]);
+                }
+            } else {
+                for (int i=0; i<n; ++i, p += 2) {
+                    b.putShort(p, (short) mCurrent[i]);
+                }
+            }
+            mPosition = p;
+        }
+
+        /**
+         * Each change is a zigzag varint. A zero is followed by a varint count of further
+         * unchanged cells.
+         */
+        private void writeChanges(int n) {
+            int p = mPosition;
+            int i = 0;
+            while (i < n) {
+                int d = mCurrent[i] - mPrevious[i];
+                i++;
+                if (d == 0) {
+                    int run = 0;
+                    while (i < n && mCurrent[i] == mPrevious[i]) {
+                        run++;
+                        i++;
+                    }
+                    p = putVarint(p, 0);
+                    p = putVarint(p, run);
+                } else {
+                    p = putVarint(p, (d << 1) ^ (d >> 31));
+                }
+            }
+            mPosition = p;
+        }
+
+        private int putVarint(int p, int v) {
+            while ((v & ~0x7f) != 0) {
+                mBuffer.put(p++, (byte) ((v & 0x7f) | 0x80));
+                v >>>= 7;
+            }
+            mBuffer.put(p++, (byte) v);
+            return p;
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (mBuffer.capacity() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(bytes, mBuffer.capacity()*3/2));
+                System.arraycopy(mBuffer.array(), 0, grown.array(), 0, mBuffer.capacity());
+                mBuffer = grown.order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        /**
+         * Completes the ripple. The frames returned share the encoder's storage, so are only
+         * valid until the next {@link #begin}.
+         */
+        public QuantizedFrames finish() {
+            if (mFrame != mLength) {
+                throw new IllegalStateException(mFrame + " of " + mLength + " frames added");
+            }
+            mBuffer.putInt(mOffsets + 4*mLength, mPosition);
+            ByteBuffer buffer = mBuffer.duplicate();
+            buffer.limit(mPosition);
+            return new QuantizedFrames(buffer.slice());
+        }
+    }
+
+    /**
+     * Decodes frames into planes, keeping the last frame decoded so that stepping to a
+     * neighbouring frame, in either direction, only applies one frame's changes.
+     */
+    public static final class Decoder {
+        private QuantizedFrames mFrames;
+        private int[] mValues;
+        private int mIndex = -1;
+
+        public Decoder(QuantizedFrames frames) {
+            setFrames(frames);
+        }
+
+        /**
+         * Switches to decoding frames, reusing storage if they are the same size.
+         */
+        public void setFrames(QuantizedFrames frames) {
+            mFrames = frames;
+            if (mValues == null || mValues.length != frames.num_x*frames.num_y) {
+                mValues = new int[frames.num_x*frames.num_y];
+            }
+            mIndex = -1;
+        }
+
+        public QuantizedFrames getFrames() {
+            return mFrames;
+        }
+
+        /**
+         * Writes the heights of frame index into plane, laid out by sim.
+         */
+        public void decode(int index, FlatGridSim sim, float[] plane) {
+            seek(index);
+            float step = 1f/(1 << mFrames.getFracBits());
+            int num_x = mFrames.num_x;
+            int n = 0;
+            for (int y=0; y<mFrames.num_y; ++y) {
+                int start = sim.index(0, y);
+                for (int i=start; i<start+num_x; ++i) {
+                    plane[i] = mValues[n++]*step;
+                }
+            }
+        }
+
+        private void seek(int index) {
+            if (index == mIndex) {
+                return;
+            }
+            int key = mFrames.mKeyInterval;
+            if (key == 0) {
+                readWhole(index);
+                mIndex = index;
+                return;
+            }
+            // Walk from the current frame if that is no further than from the whole frame at or
+            // before index. Walking backwards subtracts each frame's changes, so it can't cross
+            // a whole frame, whose changes aren't stored.
+            int before = index - index % key;
+            boolean walk = mIndex >= 0 && (mIndex < index
+                    ? index - mIndex <= index - before
+                    : mIndex - index <= index - before && mIndex - mIndex % key <= index);
+            if (!walk) {
+                readWhole(before);
+                mIndex = before;
+            }
+            while (mIndex < index) {
+                mIndex++;
+                if (mFrames.isKeyFrame(mIndex)) {
+                    readWhole(mIndex);
+                } else {
+                    applyChanges(mFrames, mIndex, mValues, 1);
+                }
+            }
+            while (mIndex > index) {
+                applyChanges(mFrames, mIndex, mValues, -1);
+                mIndex--;
+            }
+        }
+
+        private void readWhole(int index) {
+            ByteBuffer b = mFrames.mBuffer;
+            int p = mFrames.getFrameOffset(index);
+            int n = mValues.length;
+            if (mFrames.mBits == 8) {
+                for (int i=0; i<n; ++i) {
+                    mValues[i] = b.get(p++);
+                }
+            } else {
+                for (int i=0; i<n; ++i, p += 2) {
+                    mValues[i] = b.getShort(p);
+                }
+            }
+        }
+
+        /**
+         * Adds sign times the changes stored for frame index of frames, which must not be a whole
+         * frame, to values, or with null values only checks them. Returns false, having stopped,
+         * if the changes run past the frame's data or don't cover exactly one value per cell.
+         */
+        static boolean applyChanges(QuantizedFrames frames, int index, int[] values,
+                                    int sign) {
+            ByteBuffer b = frames.mBuffer;
+            int p = frames.getFrameOffset(index);
+            int end = frames.getFrameOffset(index+1);
+            int n = frames.num_x*frames.num_y;
+            int i = 0;
+            while (i < n) {
+                // Varints of up to five bytes, the most an int needs.
+                int v = 0;
+                int c = 0x80;
+                for (int shift=0; (c & 0x80) != 0; shift += 7) {
+                    if (p >= end || shift > 28) {
+                        return false;
+                    }
+                    c = b.get(p++);
+                    v |= (c & 0x7f) << shift;
+                }
+                if (v == 0) {
+                    int run = 0;
+                    c = 0x80;
+                    for (int shift=0; (c & 0x80) != 0; shift += 7) {
+                        if (p >= end || shift > 28) {
+                            return false;
+                        }
+                        c = b.get(p++);
+                        run |= (c & 0x7f) << shift;
+                    }
+                    if (run < 0 || run >= n - i) {
+                        return false;
+                    }
+                    i += run + 1;
+                } else {
+                    if (values != null) {
+                        int d = (v >>> 1) ^ -(v & 1);
+                        values[i] += sign*d;
+                    }
+                    i++;
+                }
+            }
+            return p == end;
+        }
+    }
+}
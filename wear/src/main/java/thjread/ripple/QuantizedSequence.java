@@ -0,0 +1,165 @@
+package thjread.ripple;
+
+/**
+ * A ripple kept as {@link QuantizedFrames}: simulated once through a {@link StreamingSequence},
+ * with each frame quantized as it goes, then decoded into a plane as frames are drawn. Memory is
+ * a few planes plus 1 or 2 bytes a cell a frame, or less with changes coded between whole frames,
+ * rather than 4 bytes a cell a frame.
+ *
+ * Until {@link #precompute()} has quantized the frames, they are streamed straight from the
+ * simulation, so a sequence restarted with a new time step on the draw thread, as a dissolve is,
+ * costs a step or so a frame rather than a whole ripple's quantizing at once. Restarting with the
+ * same time step keeps the quantized frames.
+ *
+ * Sequences can also be made from frames read back from storage, in which case they can't be
+ * started again.
+ */
+public class QuantizedSequence implements FrameSequence {
+    private final FlatGridSim mSim;
+    private final StreamingSequence mSource;
+    private final QuantizedFrames.Encoder mEncoder;
+    private final float[] mFrame;
+    private final float[] mMotion;
+    private QuantizedFrames.Decoder mDecoder;
+    private boolean mEncoded;
+    private int mFrameIndex = -1;
+    private String mText;
+    private float mDiff;
+
+    /**
+     * @param sim simulation used to step the frames, which may be shared between sequences
+     * @param bits 8 or 16
+     * @param keyInterval frames between whole frames, or 0 to store every frame whole
+     */
+    public QuantizedSequence(FlatGridSim sim, int length, int bits, int keyInterval) {
+        mSim = sim;
+        mSource = new StreamingSequence(sim, length);
+        mEncoder = new QuantizedFrames.Encoder(sim.getNumX(), sim.getNumY(), bits, keyInterval);
+        mFrame = sim.newPlane();
+        mMotion = new float[length];
+    }
+
+    /**
+     * Plays back frames already quantized, such as ones mapped from a file.
+     */
+    public QuantizedSequence(QuantizedFrames frames) {
+        mSim = new FlatGridSim(frames.getNumX(), frames.getNumY());
+        mSource = null;
+        mEncoder = null;
+        mFrame = mSim.newPlane();
+        mMotion = null;
+        mDecoder = new QuantizedFrames.Decoder(frames);
+        mEncoded = true;
+        mText = frames.getText();
+    }
+
+    /**
+     * The quantized frames, or null until {@link #precompute()}.
+     */
+    public QuantizedFrames getFrames() {
+        return mEncoded ? mDecoder.getFrames() : null;
+    }
+
+    @Override
+    public long getSteps() {
+        return mSource == null ? 0 : mSource.getSteps();
+    }
+
+    @Override
+    public FlatGridSim getSim() {
+        return mSim;
+    }
+
+    @Override
+    public int getLength() {
+        return mSource == null ? mDecoder.getFrames().getLength() : mSource.getLength();
+    }
+
+    @Override
+    public String getText() {
+        return mText;
+    }
+
+    @Override
+    public float[] getInitial() {
+        checkStartable();
+        return mSource.getInitial();
+    }
+
+    @Override
+    public void start(String text, float diff) {
+        checkStartable();
+        mText = text;
+        mDiff = diff;
+        mSource.start(text, diff);
+        mEncoded = false;
+        mFrameIndex = -1;
+    }
+
+    @Override
+    public void restart(float diff) {
+        checkStartable();
+        mSource.restart(diff);
+        if (diff != mDiff) {
+            mDiff = diff;
+            mEncoded = false;
+        }
+        mFrameIndex = -1;
+    }
+
+    /**
+     * Whether this sequence simulates its own frames, rather than playing back frames it was
+     * made from.
+     */
+    public boolean canStart() {
+        return mSource != null;
+    }
+
+    private void checkStartable() {
+        if (mSource == null) {
+            throw new IllegalStateException("Frames read back can't be simulated again");
+        }
+    }
+
+    /**
+     * Simulates and quantizes every frame.
+     */
+    @Override
+    public void precompute() {
+        if (mEncoded) {
+            return;
+        }
+        int length = mSource.getLength();
+        mEncoder.begin(mText, length);
+        for (int i=0; i<length; ++i) {
+            mEncoder.add(mSim, mSource.getFrame(i));
+            if (i > 0) {
+                mMotion[i-1] = mEncoder.getLastChange();
+            }
+        }
+        if (mDecoder == null) {
+            mDecoder = new QuantizedFrames.Decoder(mEncoder.finish());
+        } else {
+            mDecoder.setFrames(mEncoder.finish());
+        }
+        mEncoded = true;
+        mFrameIndex = -1;
+    }
+
+    @Override
+    public float[] getMotion() {
+        return mEncoded ? mMotion : null;
+    }
+
+    @Override
+    public float[] getFrame(int index) {
+        if (!mEncoded) {
+            return mSource.getFrame(index);
+        }
+        if (index != mFrameIndex) {
+            mDecoder.decode(index, mSim, mFrame);
+            mFrameIndex = index;
+        }
+        return mFrame;
+    }
+}
@@ -0,0 +1,146 @@
+package thjread.ripple;
+
+/**
+ * Decides when an interactive redraw would show something new, so the face can sleep until then
+ * rather than redrawing at a fixed rate.
+ *
+ * Knows where in the ripple's frames, and at what fade, each moment of the ripple is displayed.
+ * With the motion of each frame measured by {@link FrameSequence#getMotion()}, it bounds how far
+ * any line can have moved, and how far a change of fade can have changed any line's colour, since
+ * the last redraw. The next redraw is scheduled for the first redraw interval at which either
+ * reaches what is visible, {@link #VISIBLE_DISPLACEMENT} or {@link #VISIBLE_LEVELS}, or for the
+ * end of the ripple if that comes first. Without motion it falls back to every interval.
+ */
+public class RedrawScheduler {
+    /**
+     * Displacement, in pixels, that is visible on lines drawn without anti-aliasing: about half a
+     * pixel, where the pixels lit start to change. Heights are displacements in pixels. Moving
+     * lines change colour with their height too, but it is the movement that shows.
+     */
+    public static final float VISIBLE_DISPLACEMENT = 0.5f;
+
+    /**
+     * Change of line brightness level that is visible: one colour bucket of the face's palette,
+     * 2^LINE_PALETTE_SHIFT levels.
+     */
+    public static final float VISIBLE_LEVELS = 4;
+
+    /**
+     * Line brightness levels per unit of height, as {@link GridGeometry#lineLevel} has them.
+     */
+    private static final float LEVELS_PER_HEIGHT = 255f/10;
+
+    /**
+     * Largest initial height, which bounds how far a change of fade can change a line's colour.
+     */
+    private static final float MAX_HEIGHT = 10;
+
+    /**
+     * Time at the start and end of a ripple over which it fades in and out.
+     */
+    private static final int FADE_MS = 400;
+
+    private int mRippleTime;
+    private int mSimRate;
+    private boolean mInterpolate;
+    private long mStart;
+    private float[] mMotion;
+    private int mLength;
+    private float mDrawnPosition;
+    private float mDrawnScale;
+
+    /**
+     * @param rippleTime length of a ripple in ms
+     * @param simRate simulated frames per second
+     * @param interpolate whether fractional positions are displayed, see
+     *                    {@link FrameInterpolator}
+     */
+    public void setTimeline(int rippleTime, int simRate, boolean interpolate) {
+        mRippleTime = rippleTime;
+        mSimRate = simRate;
+        mInterpolate = interpolate;
+    }
+
+    /**
+     * Starts a ripple shown from start, in ms, with frames measured by motion, which may be null.
+     */
+    public void setRipple(long start, float[] motion, int length) {
+        mStart = start;
+        mMotion = motion;
+        mLength = length;
+    }
+
+    public long getRippleEnd() {
+        return mStart + mRippleTime;
+    }
+
+    /**
+     * Frame shown elapsed ms into a ripple: the first half plays backwards to the initial heights
+     * and the second half forwards from them.
+     */
+    public float position(long elapsed) {
+        float position;
+        if (elapsed <= mRippleTime/2) {
+            position = (mRippleTime/2 - elapsed) * (float) mSimRate / 1000;
+        } else {
+            position = (elapsed - mRippleTime/2) * (float) mSimRate / 1000;
+        }
+        return mInterpolate ? position : (int) position;
+    }
+
+    /**
+     * Brightness scale elapsed ms into a ripple, fading in at the start and out at the end.
+     */
+    public float scale(long elapsed) {
+        if (elapsed < FADE_MS) {
+            return (elapsed/(float) FADE_MS)*(2-elapsed/(float) FADE_MS);
+        } else if (mRippleTime-elapsed < FADE_MS) {
+            return ((mRippleTime-elapsed)/(float) FADE_MS)*(2-(mRippleTime-elapsed)/(float) FADE_MS);
+        }
+        return 1.0f;
+    }
+
+    /**
+     * Records that the display now shows the ripple as of time now.
+     */
+    public void drawn(long now) {
+        mDrawnPosition = position(now - mStart);
+        mDrawnScale = scale(now - mStart);
+    }
+
+    /**
+     * Time from now until the next redraw that would show a visible change, a whole number of
+     * intervals away, or until the end of the ripple.
+     */
+    public long nextRedrawDelay(long now, long interval) {
+        long end = getRippleEnd();
+        if (mMotion == null || now >= end) {
+            return interval;
+        }
+        for (long t=now+interval; t<end; t+=interval) {
+            if (change(t - mStart) >= 1) {
+                return t - now;
+            }
+        }
+        return end - now;
+    }
+
+    /**
+     * Bound on how far any displayed line or colour has moved between the last redraw and
+     * elapsed ms into the ripple, as a fraction of a visible change.
+     */
+    float change(long elapsed) {
+        float position = position(elapsed);
+        float lo = Math.min(position, mDrawnPosition);
+        float hi = Math.max(position, mDrawnPosition);
+        float motion = 0;
+        // Interpolated heights move linearly within each frame, so each frame overlapped
+        // contributes its motion in proportion to the overlap.
+        for (int i=(int) lo; i<hi && i<mLength-1; ++i) {
+            float overlap = Math.min(hi, i+1) - Math.max(lo, i);
+            motion += overlap*mMotion[i];
+        }
+        float levels = Math.abs(scale(elapsed) - mDrawnScale)*MAX_HEIGHT*LEVELS_PER_HEIGHT;
+        return motion/VISIBLE_DISPLACEMENT + levels/VISIBLE_LEVELS;
+    }
+}
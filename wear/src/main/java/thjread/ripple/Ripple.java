@@ -33,14 +33,17 @@ import android.os.Message;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Locale;
+import java.util.Properties;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -53,16 +56,111 @@ public class Ripple extends CanvasWatchFaceService {
             Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
 
     /**
-     * Update rate in milliseconds for interactive mode. We update once a second since seconds are
-     * displayed in interactive mode.
+     * Grid size, simulation steps per second and interactive redraw interval, cheapest first.
+     * {@link QualityGovernor} moves between them at ripple boundaries from measured frame times,
+     * starting at {@link #DEFAULT_QUALITY}.
      */
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1)/20;
+    private static final QualityGovernor.Level[] QUALITY_LEVELS = {
+            new QualityGovernor.Level(20, 10, 15, TimeUnit.SECONDS.toMillis(1)/10),
+            new QualityGovernor.Level(30, 15, 20, TimeUnit.SECONDS.toMillis(1)/15),
+            new QualityGovernor.Level(40, 20, 30, TimeUnit.SECONDS.toMillis(1)/20),
+            new QualityGovernor.Level(60, 30, 30, TimeUnit.SECONDS.toMillis(1)/30),
+            new QualityGovernor.Level(80, 40, 30, TimeUnit.SECONDS.toMillis(1)/30),
+    };
+    private static final int DEFAULT_QUALITY = 2;
+
+    /**
+     * Largest share of the time the face may spend drawing in interactive mode.
+     */
+    private static final float FRAME_BUDGET = 0.25f;
+
+    /**
+     * Whether to record per-phase frame timings, which are printed by dumpsys.
+     */
+    private static final boolean FRAME_STATS = true;
+
+    /**
+     * Sub-cell pen positions each glyph is rasterized at for composing time strings.
+     */
+    private static final int ATLAS_PHASES = 4;
 
     /**
      * Handler message id for updating the time periodically in interactive mode.
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * Grid lines are drawn in colour buckets of 2^LINE_PALETTE_SHIFT brightness levels.
+     */
+    private static final int LINE_PALETTE_SHIFT = 2;
+
+    /**
+     * Whether to draw grid lines into a pixel array with {@link GridRasterizer} and blit it,
+     * rather than through Canvas.drawLines.
+     */
+    private static final boolean RASTERIZE_GRID = false;
+
+    /**
+     * Per-glyph ripple responses the glyph cache, which the next ripple is summed from, holds: the
+     * eight glyphs of H:MM:SS and the other digits the seconds show within a minute, four more in
+     * the units with a ripple every four seconds and five in the tens. With fewer, the digits
+     * that change miss every time and the cache simulates more than it saves.
+     */
+    private static final int GLYPH_CACHE_GLYPHS = 8 + 4 + 5;
+
+    /**
+     * Most memory the glyph cache may take. Levels whose responses don't fit go without it.
+     */
+    private static final long MAX_GLYPH_CACHE_BYTES = 6*1024*1024;
+
+    /**
+     * How ripple frames are kept between being prepared and drawn. FRAMES_STORED keeps every
+     * frame. FRAMES_SPECTRAL computes each drawn frame in closed form, at the cost of an inverse
+     * transform per frame. FRAMES_STREAMED steps through frames as they are drawn using a few
+     * planes, at the cost of one simulation step per frame. The last two use the same small
+     * amount of memory however long the ripple or large the grid. FRAMES_QUANTIZED keeps every
+     * frame at 16 bits a cell, with changes coded between whole frames, at the cost of decoding
+     * each frame drawn.
+     */
+    private static final int FRAME_STORAGE = RippleProducer.FRAMES_STORED;
+
+    /**
+     * Number of ripples kept on disk for leaving ambient mode, one for each minute the face went
+     * ambient or out of view in.
+     */
+    private static final int WARM_START_RIPPLES = 4;
+
+    /**
+     * How many times faster than a ripple the ambient time dissolves on leaving ambient mode.
+     */
+    private static final int DISSOLVE_SPEED = 3;
+
+    /**
+     * How long tap ripples show for after the last tap.
+     */
+    private static final long TAP_RIPPLE_MS = 2500;
+
+    /**
+     * Whether to blend the simulated frames either side of the displayed time, rather than
+     * showing the one before it, so that levels simulating fewer steps than they redraw still
+     * move smoothly.
+     */
+    private static final boolean INTERPOLATE_FRAMES = true;
+
+    /**
+     * Whether to time interactive redraws from display vsync through {@link Choreographer}
+     * rather than from Handler messages, so that each redraw is drawn in the frame it was
+     * scheduled for. Either way, {@link RedrawScheduler} skips redraws that would show no
+     * visible change.
+     */
+    private static final boolean REDRAW_ON_VSYNC = true;
+
+    /**
+     * How early a vsync-timed redraw may be, so that one just short of the interval isn't put
+     * off a whole display frame.
+     */
+    private static final long VSYNC_SLACK_MS = 8;
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -93,34 +191,62 @@ public class Ripple extends CanvasWatchFaceService {
         boolean mRegisteredTimeZoneReceiver = false;
         Paint mBackgroundPaint;
         Paint mGridPaint;
-        Paint mTextPaint;
-        Bitmap mTextBitmap;
-        Canvas mTextCanvas;
+        AtlasText mText;
+        AtlasText mAmbientText;
+        AtlasText mInteractiveText;
         boolean mAmbient;
-        int mWasAmbient = 0;
-        int mWasAmbientIndex = 0;
-        Calendar mCalendar;
-        SimpleDateFormat mDateFormat;
-        SimpleDateFormat mAmbientDateFormat;
+        /**
+         * Whether mAnimate holds the ambient time, started.
+         */
+        boolean mAmbientPrepared;
+        final TimeText mTime = new TimeText(true);
+        final TimeText mAmbientTime = new TimeText(false);
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
-                mDateFormat.setTimeZone(TimeZone.getDefault());
-                mAmbientDateFormat.setTimeZone(TimeZone.getDefault());
+                updateTimeZone();
                 invalidate();
             }
         };
         Typeface mFont;
         float mXOffset;
         float mYOffset;
-        GridSim mGridSim;
-        int num_x = 40;
-        int num_y = 20;
-        long mLastSec = 0;
-        float[][][] mAnimate;
-        float[][][] mLastAnimate;
-        int mIndex;
+        RippleProducer mProducer;
+        final GridGeometry mGeometry = new GridGeometry();
+        final GridLineBatch mLineBatch = new GridLineBatch(LINE_PALETTE_SHIFT);
+        final GridRasterizer mRasterizer = new GridRasterizer(LINE_PALETTE_SHIFT);
+        Bitmap mRasterBitmap;
+        QualityGovernor mGovernor;
+        RippleDiskCache mDiskCache;
+        final FrameStats mStats = new FrameStats();
+        final FrameInterpolator mInterpolator = new FrameInterpolator();
+        /**
+         * Starts out ambient, so a new engine's first frames dissolve the ambient time, from disk
+         * if it is there, while the first ripple is prepared.
+         */
+        final RippleTimeline mTimeline = new RippleTimeline(RippleTimeline.SYSTEM_CLOCK);
+        TapRipples mTaps;
+        final Choreographer.FrameCallback mRedrawCallback = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                invalidate();
+            }
+        };
+        int num_x;
+        int num_y;
+        int mSimRate;
+        long mUpdateRateMs;
+        int mTextColor;
+        int mTextBackgroundColor;
+        FrameSequence mAnimate;
+        FrameSequence mLastAnimate;
+        /**
+         * While mLastAnimate is a warm start, which may have been read back from disk and so
+         * can't be started again, the sequence it replaced, for mAnimate to get back in its place.
+         */
+        FrameSequence mWarmReplaced;
+        final TimeText mPendingText = new TimeText(true);
+        boolean mHasPending;
 
         int mRippleTime = 4000;
 
@@ -150,40 +276,27 @@ public class Ripple extends CanvasWatchFaceService {
             mGridPaint = new Paint();
             mGridPaint.setColor(resources.getColor(R.color.grid));
 
-            mTextPaint = new Paint();
-            mTextPaint = createTextPaint(resources.getColor(R.color.digital_text));
-
-            mCalendar = Calendar.getInstance();
-
-            mTextBitmap = Bitmap.createBitmap(num_x, num_y, Bitmap.Config.ARGB_8888);
-            mTextCanvas = new Canvas(mTextBitmap);
-
-            mGridSim = new GridSim();
-            mGridSim.initGrid(num_x, num_y);
-
-            mIndex = 0;
-            mAnimate = new float[mRippleTime/2/30 + 1][num_y][num_x];
-            mLastAnimate = new float[mRippleTime/2/30 + 1][num_y][num_x];
-
-            mDateFormat = new SimpleDateFormat("h:mm:ss");
-            mAmbientDateFormat = new SimpleDateFormat("h:mm");
+            mFont = Typeface.createFromAsset(getAssets(), "fonts/Comfortaa-Bold.ttf");
+            mTextColor = resources.getColor(R.color.digital_text);
+            mTextBackgroundColor = resources.getColor(R.color.background);
+
+            mStats.setEnabled(FRAME_STATS);
+            mDiskCache = new RippleDiskCache(new File(getCacheDir(), "ripples"),
+                    WARM_START_RIPPLES);
+            mGovernor = new QualityGovernor(QUALITY_LEVELS, savedQuality(), FRAME_BUDGET);
+            applyQuality(mGovernor.getLevel());
+            mAmbientTime.setTime(mTimeline.now());
+            mProducer.loadWarmStart(mAmbientTime);
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            Choreographer.getInstance().removeFrameCallback(mRedrawCallback);
+            mProducer.quit();
             super.onDestroy();
         }
 
-        private Paint createTextPaint(int textColor) {
-            Paint paint = new Paint();
-            paint.setColor(textColor);
-            mFont = Typeface.createFromAsset(getAssets(), "fonts/Comfortaa-Bold.ttf");
-            paint.setTypeface(mFont);
-            paint.setAntiAlias(true);
-            return paint;
-        }
-
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
@@ -192,10 +305,12 @@ public class Ripple extends CanvasWatchFaceService {
                 registerReceiver();
 
                 // Update time zone in case it changed while we weren't visible.
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                updateTimeZone();
                 invalidate();
             } else {
                 unregisterReceiver();
+                // The engine may be destroyed next; keep its first frames for the next one.
+                requestWarmStart();
             }
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -203,6 +318,13 @@ public class Ripple extends CanvasWatchFaceService {
             updateTimer();
         }
 
+        private void updateTimeZone() {
+            TimeZone zone = TimeZone.getDefault();
+            mTime.setTimeZone(zone);
+            mAmbientTime.setTimeZone(zone);
+            mPendingText.setTimeZone(zone);
+        }
+
         private void registerReceiver() {
             if (mRegisteredTimeZoneReceiver) {
                 return;
@@ -232,9 +354,7 @@ public class Ripple extends CanvasWatchFaceService {
             /*float textSize = resources.getDimension(isRound
                     ? R.dimen.digital_text_size_round : R.dimen.digital_text_size);*/
 
-            mTextPaint.setTextSize(10.5f);
-            mTextPaint.setTypeface(Typeface.DEFAULT);
-            mTextPaint.setLetterSpacing(0.0f);
+            setTextStyle();
         }
 
         @Override
@@ -254,18 +374,14 @@ public class Ripple extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
+                if (mAmbient) {
+                    mStats.count(FrameStats.COUNT_AMBIENT_ENTER);
+                    requestWarmStart();
+                }
                 invalidate();
             }
 
-            if (mAmbient) {
-                mTextPaint.setTypeface(mFont);
-                mTextPaint.setTextSize(15);
-                mTextPaint.setLetterSpacing(0.04f);
-            } else {
-                mTextPaint.setTypeface(Typeface.DEFAULT);
-                mTextPaint.setTextSize(10.5f);
-                mTextPaint.setLetterSpacing(0.0f);
-            }
+            setTextStyle();
 
             // Whether the timer should be running depends on whether we're visible (as well as
             // whether we're in ambient mode), so we may need to start or stop the timer.
@@ -286,48 +402,202 @@ public class Ripple extends CanvasWatchFaceService {
                     // The user has started a different gesture or otherwise cancelled the tap.
                     break;
                 case TAP_TYPE_TAP:
-                    // The user has completed the tap gesture.
-                    mGridSim.initGrid(num_x, num_y);
+                    // The user has completed the tap gesture. The grid is laid out as it was
+                    // last drawn.
+                    if (mGeometry.num_x == num_x && mGeometry.num_y == num_y) {
+                        mTaps.tap(mGeometry.cellX(x), mGeometry.cellY(y),
+                                mTimeline.now());
+                        scheduleRedraw(0);
+                    }
                     break;
             }
             invalidate();
         }
 
-        private void drawGrid(Canvas canvas, Rect bounds, float[][] grid, float scale) {
-            int num_x = grid[0].length;
-            int num_y = grid.length;
-            int originX = bounds.left;
-            //int originY = bounds.top;
-            float x_inc = ((float) bounds.width())/(num_x+1);
-            float y_inc = x_inc;//((float) bounds.height())/num_y;
-            int originY = (int) (bounds.bottom/2 - ((num_y+1)/2)*y_inc);
-
-            for (int x=0; x<num_x-1; ++x) {
-                for (int y = 0; y < num_y-1; ++y) {
-                    float val = 0.5f*(grid[y][x] + grid[y+1][x]) * scale;
-                    int col = (int) (255/10*val);
-                    if (col >= 0) {
-                        mGridPaint.setColor(Color.rgb(col, col, col));
-                    } else {
-                        mGridPaint.setColor(Color.rgb(0, 0, -col));
-                    }
-                    canvas.drawLine(originX + (x+1)*x_inc, originY + (y+1)*y_inc - grid[y][x],
-                            originX + (x+1)*x_inc, originY + (y+2)*y_inc - grid[y+1][x], mGridPaint);
-                    val = 0.5f*(grid[y][x]+grid[y][x+1]) * scale;
-                    col = (int) (255/10*val);
-                    if (col >= 0) {
-                        mGridPaint.setColor(Color.rgb(col, col, col));
-                    } else {
-                        mGridPaint.setColor(Color.rgb(0, 0, -col));
-                    }
-                    canvas.drawLine(originX + (x+1)*x_inc, originY + (y+1)*y_inc - grid[y][x],
-                            originX + (x+2)*x_inc, originY + (y+1)*y_inc - grid[y][x+1], mGridPaint);
+        /**
+         * Prints frame timings for adb shell dumpsys activity service thjread.ripple.
+         */
+        @Override
+        protected void dump(String prefix, FileDescriptor fd, PrintWriter out, String[] args) {
+            super.dump(prefix, fd, out, args);
+            out.print(prefix);
+            out.println("quality=" + mGovernor.getLevelIndex() + " grid=" + num_x + "x" + num_y
+                    + " simRate=" + mSimRate + " redrawMs=" + mUpdateRateMs);
+            mStats.dump(prefix, out);
+        }
+
+        /**
+         * Draws sequence at position, in frames, faded by scale, with any tap ripples added.
+         */
+        private void drawRipple(Canvas canvas, Rect bounds, FrameSequence sequence,
+                float position, float scale, long now) {
+            float[] grid = getFrame(sequence, position);
+            long start = mStats.begin();
+            float[] taps = mTaps.apply(sequence.getSim(), grid, scale, now);
+            mStats.end(FrameStats.PHASE_TAPS, start);
+            if (taps != null) {
+                drawGrid(canvas, bounds, sequence.getSim(), taps, 1f);
+            } else {
+                drawGrid(canvas, bounds, sequence.getSim(), grid, scale);
+            }
+        }
+
+        /**
+         * Fetches the heights at position, in frames, recording how long it took and how many
+         * steps it needed.
+         */
+        private float[] getFrame(FrameSequence sequence, float position) {
+            long start = mStats.begin();
+            long steps = sequence.getSteps();
+            float[] frame = mInterpolator.getFrame(sequence, position);
+            mStats.end(FrameStats.PHASE_GET_FRAME, start);
+            mStats.recordSteps(sequence.getSteps() - steps);
+            return frame;
+        }
+
+        private void drawGrid(Canvas canvas, Rect bounds, FlatGridSim sim, float[] grid,
+                float scale) {
+            long start = mStats.begin();
+            mGeometry.layout(bounds.left, bounds.width(), bounds.bottom, sim.getNumX(),
+                    sim.getNumY());
+            if (RASTERIZE_GRID) {
+                rasterizeGrid(canvas, bounds, sim, grid, scale);
+                mStats.end(FrameStats.PHASE_DRAW_GRID, start);
+                return;
+            }
+            mLineBatch.build(mGeometry, sim, grid, scale);
+
+            float[] points = mLineBatch.getPoints();
+            for (int b=0; b<mLineBatch.getBucketCount(); ++b) {
+                int length = mLineBatch.getBucketLength(b);
+                if (length > 0) {
+                    mGridPaint.setColor(mLineBatch.getBucketColor(b));
+                    canvas.drawLines(points, mLineBatch.getBucketOffset(b), length, mGridPaint);
                 }
             }
+            mStats.end(FrameStats.PHASE_DRAW_GRID, start);
+        }
+
+        /**
+         * Draws the grid laid out in mGeometry into the pixel buffer, over the background, and
+         * blits it. The buffer covers the screen from its top left corner to the bounds' bottom
+         * right, so it is in the same coordinates as the layout.
+         */
+        private void rasterizeGrid(Canvas canvas, Rect bounds, FlatGridSim sim, float[] grid,
+                float scale) {
+            int width = bounds.right;
+            int height = bounds.bottom;
+            if (mRasterBitmap == null || mRasterBitmap.getWidth() != width
+                    || mRasterBitmap.getHeight() != height) {
+                mRasterBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            mRasterizer.setSize(width, height);
+            int background = isInAmbientMode() ? Color.BLACK : mBackgroundPaint.getColor();
+            mRasterizer.draw(mGeometry, sim, grid, scale, background);
+            mRasterBitmap.setPixels(mRasterizer.getPixels(), 0, width, 0, 0, width, height);
+            canvas.drawBitmap(mRasterBitmap, 0, 0, null);
+        }
+
+        /**
+         * Sets up the grid, text and producer for a quality level. Any ripple in preparation is
+         * dropped, and the next one is simulated on the spot.
+         */
+        private void applyQuality(QualityGovernor.Level level) {
+            num_x = level.num_x;
+            num_y = level.num_y;
+            mSimRate = level.simRate;
+            mUpdateRateMs = level.redrawMs;
+            mTimeline.setTimeline(mRippleTime, mSimRate, INTERPOLATE_FRAMES);
+            mTaps = new TapRipples(num_x, num_y, mSimRate, simDiff(), TAP_RIPPLE_MS);
+
+            // Glyphs are rasterized once here; ripples and ambient redraws compose them.
+            TextHeightfield glyphs = new TextHeightfield(num_x, num_y, mTextColor,
+                    mTextBackgroundColor);
+            glyphs.setStyle(mFont, 15f*num_y/20, 0.04f);
+            GlyphAtlas ambientAtlas = glyphs.buildAtlas(GlyphAtlas.TIME_CHARS, ATLAS_PHASES);
+            glyphs.setStyle(Typeface.DEFAULT, 10.5f*num_y/20, 0.0f);
+            GlyphAtlas atlas = glyphs.buildAtlas(GlyphAtlas.TIME_CHARS, ATLAS_PHASES);
+            mAmbientText = new AtlasText(ambientAtlas, num_x, num_y, mTextColor,
+                    mTextBackgroundColor);
+            mInteractiveText = new AtlasText(atlas, num_x, num_y, mTextColor,
+                    mTextBackgroundColor);
+            setTextStyle();
+            mLineBatch.ensureCapacity(num_x, num_y);
+
+            if (mProducer != null) {
+                mProducer.quit();
+            }
+            AtlasText producerText = new AtlasText(atlas, num_x, num_y, mTextColor,
+                    mTextBackgroundColor);
+            mProducer = new RippleProducer(producerText, num_x, num_y, rippleLength(), simDiff());
+            mProducer.setStripes(ParallelGridSim.stripesFor(num_x, num_y));
+            mProducer.setStats(mStats);
+            mProducer.setFrames(FRAME_STORAGE);
+            long glyphCacheBytes = GLYPH_CACHE_GLYPHS
+                    *GlyphResponseCache.entryBytes(num_x, num_y, rippleLength());
+            if (glyphCacheBytes <= MAX_GLYPH_CACHE_BYTES) {
+                mProducer.setGlyphCache(glyphCacheBytes);
+            }
+            AtlasText warmText = new AtlasText(ambientAtlas, num_x, num_y, mTextColor,
+                    mTextBackgroundColor);
+            mProducer.setWarmStart(mDiskCache, "ambient-" + num_x + "x" + num_y + "-" + mSimRate
+                    + "-" + Integer.toHexString(mTextColor) + "-", warmText,
+                    DISSOLVE_SPEED*simDiff());
+            mAmbientPrepared = false;
+            mAnimate = mProducer.newSequence();
+            mLastAnimate = mProducer.newSequence();
+            mWarmReplaced = null;
+            mHasPending = false;
+            mProducer.start();
+        }
+
+        /**
+         * The quality level the last engine settled on, or the default.
+         */
+        private int savedQuality() {
+            String saved = mDiskCache.readState().getProperty("quality");
+            try {
+                int quality = saved == null ? DEFAULT_QUALITY : Integer.parseInt(saved);
+                return quality >= 0 && quality < QUALITY_LEVELS.length ? quality : DEFAULT_QUALITY;
+            } catch (NumberFormatException e) {
+                return DEFAULT_QUALITY;
+            }
+        }
+
+        /**
+         * Saves the quality level for the next engine, on the producer thread.
+         */
+        private void saveQuality() {
+            Properties state = new Properties();
+            state.setProperty("quality", Integer.toString(mGovernor.getLevelIndex()));
+            mProducer.saveState(state);
+        }
+
+        /**
+         * Picks the ambient or interactive glyphs. Text sizes are for a 20 row grid and scale
+         * with it.
+         */
+        private void setTextStyle() {
+            mText = mAmbient ? mAmbientText : mInteractiveText;
+        }
+
+        /**
+         * Frames in half a ripple at the current simulation rate.
+         */
+        private int rippleLength() {
+            return mRippleTime/2/30*mSimRate/30 + 1;
+        }
+
+        /**
+         * Simulation time step, so that ripples spread at the same speed whatever the rate.
+         */
+        private float simDiff() {
+            return 1f/mSimRate;
         }
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
+            long start = System.nanoTime();
             // Draw the background.
             if (isInAmbientMode()) {
                 canvas.drawColor(Color.BLACK);
@@ -336,87 +606,63 @@ public class Ripple extends CanvasWatchFaceService {
             }
 
             // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
-            long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
+            long now = mTimeline.now();
 
             if (mAmbient) {
-                mCalendar.setTimeInMillis(now);
-                String text = mAmbientDateFormat.format(mCalendar.getTime());
-                mTextCanvas.drawRect(0, 0, num_x, num_y, mBackgroundPaint);
-                Rect bs = new Rect();
-                mTextPaint.getTextBounds(text, 0, text.length(), bs);
-                mTextCanvas.drawText(text,  num_x / 2 - bs.width()/2,
-                        bs.height() / 2 + num_y / 2, mTextPaint);
-                mGridSim.setRecordInit(mAnimate, mTextBitmap);
-                drawGrid(canvas, bounds, mAnimate[0], 1f);
-                mWasAmbient = 2;
+                prepareAmbient(now);
+                drawGrid(canvas, bounds, mAnimate.getSim(), mAnimate.getInitial(), 1f);
+                mTimeline.ambientFrame();
             }
             else {
-                if (now >= mLastSec + mRippleTime || mWasAmbient == 2) {
-                    mCalendar.setTimeInMillis((long) (now + 1.5*mRippleTime));
-                    boolean wasLate = (now >= mLastSec + 2*mRippleTime);
-                    mLastSec = now;
-
-                    if (mWasAmbient == 2) {
-                        mWasAmbient = 1;
-                        mLastSec = now - (mRippleTime-1000);
-                        mCalendar.setTimeInMillis((long) (now + 1000 + 0.5*mRippleTime));
-                        mWasAmbientIndex = 2;
-                    } else if (mWasAmbient == 1) {
-                        mWasAmbient = 0;
+                if (mTimeline.boundary(now)) {
+                    boolean fromAmbient = mTimeline.isFromAmbient();
+                    if (mTimeline.isLate()) {
+                        mStats.count(FrameStats.COUNT_LATE);
                     }
-
-                    if (wasLate && mWasAmbient != 1) {
-                        mWasAmbient = 1;
-                        mLastSec = now - (mRippleTime-200);
-                        mCalendar.setTimeInMillis((long) (now + 200 + 0.5*mRippleTime));
-                        mWasAmbientIndex = 2;
+                    if (fromAmbient) {
+                        mStats.count(FrameStats.COUNT_AMBIENT_EXIT);
                     }
 
-                    String text = mDateFormat.format(mCalendar.getTime());
-                    mTextCanvas.drawRect(0, 0, num_x, num_y, mBackgroundPaint);
-                    Rect bs = new Rect();
-                    mTextPaint.getTextBounds(text, 0, text.length(), bs);
-                    mTextCanvas.drawText(text, num_x / 2 - bs.width() / 2, bs.height() / 2 + num_y / 2, mTextPaint);
-                    float[][][] a = mLastAnimate;
-                    mLastAnimate = mAnimate;
-                    mAnimate = a;
-                    mGridSim.setRecordInit(mAnimate, mTextBitmap);
-                    mIndex = 2;
-                }
-
-                while (mIndex <= (now - mLastSec) * 30f / 1000 && mIndex < mAnimate.length) {
-                    mGridSim.simulateGrid(mAnimate, mIndex, 1f / 30);
-                    mIndex++;
-                }
-                if (mWasAmbient == 1) {
-                    mGridSim.simulateGrid(mLastAnimate, mWasAmbientIndex, 3f/30);
-                }
-
-                if (mWasAmbient == 1) {
-                    float x = (mLastSec+mRippleTime-now)/1000f;
-                    float scale = x*(2-x);
-                    drawGrid(canvas, bounds, mLastAnimate[mWasAmbientIndex], scale);
-                    if (mWasAmbientIndex < mLastAnimate.length-1) {
-                        mWasAmbientIndex++;
+                    if (!fromAmbient && mGovernor.onBoundary()) {
+                        mStats.count(FrameStats.COUNT_QUALITY_CHANGE);
+                        applyQuality(mGovernor.getLevel());
+                        saveQuality();
                     }
-                } else {
-                    int frame = (int) (now - mLastSec);
-                    int display_frame;
-                    if (frame <= mRippleTime/2) {
-                        display_frame = (int) ((mRippleTime/2 - frame) * 30f / 1000);
+                    FrameSequence warm = null;
+                    if (fromAmbient) {
+                        // Dissolve the ambient text while the next ripple is prepared, using
+                        // the ripple the producer has ready if there is one.
+                        if (!mAmbientPrepared) {
+                            prepareAmbient(now);
+                        }
+                        warm = mProducer.takeWarmStart(mAmbientTime);
+                        if (warm != null) {
+                            showWarmStart(warm);
+                        } else {
+                            showAnimate();
+                        }
                     } else {
-                        display_frame = (int) ((frame - mRippleTime/2) * 30f / 1000);
+                        showNextRipple(now);
                     }
-                    float scale = 1.0f;
-                    if (frame < 400) {
-                        scale = (frame/400f)*(2-frame/400f);
-                    } else if (mRippleTime-frame < 400) {
-                        scale = ((mRippleTime-frame)/400f)*(2-(mRippleTime-frame)/400f);
+                    if (mTimeline.isDissolving() && warm == null) {
+                        // Dissolve what is shown until the next ripple faster.
+                        mLastAnimate.restart(DISSOLVE_SPEED*simDiff());
                     }
+                    mTimeline.setRipple(mLastAnimate.getMotion(), mLastAnimate.getLength());
 
-                    drawGrid(canvas, bounds, mLastAnimate[display_frame], scale);
+                    mPendingText.setTime(mTimeline.getTextTime());
+                    mHasPending = true;
+                    mProducer.request(mPendingText.getSecondOfDay());
                 }
+
+                drawRipple(canvas, bounds, mLastAnimate, mTimeline.position(now),
+                        mTimeline.scale(now), now);
+                mTimeline.drawn(now);
+                long elapsed = System.nanoTime() - start;
+                mGovernor.addFrame(elapsed);
+                mStats.record(FrameStats.PHASE_FRAME, elapsed);
+                scheduleRedraw(mTaps.isActive(now)
+                        ? mUpdateRateMs : mTimeline.nextRedrawDelay(now, mUpdateRateMs));
             }
 
             //Bitmap quad = Bitmap.createScaledBitmap(mTextBitmap, mTextBitmap.getWidth()*4, mTextBitmap.getHeight()*4, false);
@@ -424,13 +670,121 @@ public class Ripple extends CanvasWatchFaceService {
         }
 
         /**
-         * Starts the {@link #mUpdateTimeHandler} timer if it should be running and isn't currently
-         * or stops it if it shouldn't be running but currently is.
+         * Has the producer prepare, and save if it isn't on disk, the ripple that dissolves this
+         * minute's ambient time. Only asked for on going ambient or out of view, so ambient
+         * minutes don't each wake the worker and write a file.
+         */
+        private void requestWarmStart() {
+            mAmbientTime.setTime(mTimeline.now());
+            mProducer.requestWarmStart(mAmbientTime.getSecondOfDay());
+        }
+
+        /**
+         * Writes the ambient time at now into mAnimate and starts it, for drawing in ambient
+         * mode and dissolving on leaving it.
+         */
+        private void prepareAmbient(long now) {
+            mAmbientTime.setTime(now);
+            long start = mStats.begin();
+            mAmbientText.render(mAmbientTime.getChars(), mAmbientTime.length(), mAnimate.getSim(),
+                    mAnimate.getInitial());
+            mStats.end(FrameStats.PHASE_TEXT, start);
+            mAnimate.start(null, simDiff());
+            mAmbientPrepared = true;
+        }
+
+        /**
+         * Makes the ripple requested at the previous boundary the displayed one. If the producer
+         * hasn't finished it, which only happens when it was requested moments ago, it is
+         * simulated here instead.
+         */
+        private void showNextRipple(long now) {
+            FrameSequence next = mHasPending ? mProducer.take(mPendingText) : null;
+            if (next != null) {
+                mProducer.recycle(mLastAnimate);
+                if (mWarmReplaced != null) {
+                    mProducer.recycle(mWarmReplaced);
+                    mWarmReplaced = null;
+                }
+                mLastAnimate = next;
+                return;
+            }
+
+            TimeText text = mPendingText;
+            if (mHasPending) {
+                mStats.count(FrameStats.COUNT_PRODUCER_MISS);
+            } else {
+                mTime.setTime(now + mRippleTime/2);
+                text = mTime;
+            }
+            long start = mStats.begin();
+            mText.render(text.getChars(), text.length(), mAnimate.getSim(), mAnimate.getInitial());
+            mStats.end(FrameStats.PHASE_TEXT, start);
+            start = mStats.begin();
+            mAnimate.start(null, simDiff());
+            mAnimate.precompute();
+            mStats.end(FrameStats.PHASE_SIMULATE, start);
+            showAnimate();
+        }
+
+        /**
+         * Shows the warm start in place of mLastAnimate, keeping the sequence it replaces for
+         * mAnimate, since the warm start may not be startable.
+         */
+        private void showWarmStart(FrameSequence warm) {
+            if (mWarmReplaced == null) {
+                mWarmReplaced = mLastAnimate;
+            } else {
+                mProducer.recycle(mLastAnimate);
+            }
+            mLastAnimate = warm;
+        }
+
+        /**
+         * Shows mAnimate, which the sequence it replaces becomes for preparing the next ripple in,
+         * unless that is a warm start, which is dropped for the sequence it replaced.
+         */
+        private void showAnimate() {
+            FrameSequence shown = mLastAnimate;
+            mLastAnimate = mAnimate;
+            if (mWarmReplaced != null) {
+                mProducer.recycle(shown);
+                mAnimate = mWarmReplaced;
+                mWarmReplaced = null;
+            } else {
+                mAnimate = shown;
+            }
+            mAmbientPrepared = false;
+        }
+
+        /**
+         * Starts the redraw timer, {@link #mRedrawCallback} or {@link #mUpdateTimeHandler}, if it
+         * should be running and isn't currently or stops it if it shouldn't be running but
+         * currently is.
          */
         private void updateTimer() {
+            scheduleRedraw(0);
+        }
+
+        /**
+         * Replaces any pending redraw with one in delayMs, if the timer should be running. Each
+         * interactive onDraw schedules the next, so the timer sleeps through stretches with
+         * nothing new to show.
+         */
+        private void scheduleRedraw(long delayMs) {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
-            if (shouldTimerBeRunning()) {
-                mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
+            Choreographer.getInstance().removeFrameCallback(mRedrawCallback);
+            if (!shouldTimerBeRunning()) {
+                return;
+            }
+            if (delayMs > mUpdateRateMs) {
+                mStats.count(FrameStats.COUNT_SKIPPED_REDRAWS, delayMs/mUpdateRateMs - 1);
+            }
+            if (REDRAW_ON_VSYNC) {
+                Choreographer.getInstance().postFrameCallbackDelayed(mRedrawCallback,
+                        Math.max(0, delayMs - VSYNC_SLACK_MS));
+            } else {
+                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
 
@@ -447,12 +801,6 @@ public class Ripple extends CanvasWatchFaceService {
          */
         private void handleUpdateTimeMessage() {
             invalidate();
-            if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
-            }
         }
     }
 }
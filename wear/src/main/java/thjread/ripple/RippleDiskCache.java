@@ -0,0 +1,155 @@
+package thjread.ripple;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * Ripples and engine state kept in app storage, so that an engine recreated by the system can
+ * show its first frames without simulating and start at the quality it had settled on.
+ *
+ * Ripples are stored as {@link QuantizedFrames} files named by key, written whole to a temporary
+ * file and renamed into place so that a reader never sees part of one, and memory-mapped when
+ * loaded. Only the most recently written are kept. Methods may be called from any thread, but
+ * each key should only be written from one.
+ */
+public class RippleDiskCache {
+    private static final String SUFFIX = ".ripple";
+    private static final String STATE_FILE = "state.properties";
+
+    private final File mDir;
+    private final int mMaxEntries;
+
+    /**
+     * @param maxEntries number of ripples to keep
+     */
+    public RippleDiskCache(File dir, int maxEntries) {
+        mDir = dir;
+        mMaxEntries = maxEntries;
+    }
+
+    private File file(String key) {
+        StringBuilder name = new StringBuilder(key.length() + SUFFIX.length());
+        for (int i=0; i<key.length(); ++i) {
+            char c = key.charAt(i);
+            boolean safe = (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
+                    || (c >= 'A' && c <= 'Z') || c == '-';
+            name.append(safe ? c : '_');
+        }
+        return new File(mDir, name.append(SUFFIX).toString());
+    }
+
+    public boolean contains(String key) {
+        return file(key).isFile();
+    }
+
+    /**
+     * Maps the ripple stored under key, or returns null if there is none or it can't be read, in
+     * which case it is deleted.
+     */
+    public QuantizedFrames load(String key) {
+        File file = file(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return QuantizedFrames.map(file);
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores frames under key, replacing any ripple already there, then drops the oldest
+     * ripples beyond the limit.
+     */
+    public void save(String key, QuantizedFrames frames) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Can't create " + mDir);
+        }
+        File file = file(key);
+        File temp = new File(mDir, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            frames.writeTo(out.getChannel());
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Can't rename " + temp + " to " + file);
+        }
+        prune();
+    }
+
+    private void prune() {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        int entries = 0;
+        for (File f : files) {
+            if (f.getName().endsWith(SUFFIX)) {
+                files[entries++] = f;
+            }
+        }
+        if (entries <= mMaxEntries) {
+            return;
+        }
+        files = Arrays.copyOf(files, entries);
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = b.lastModified() - a.lastModified();
+                return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+            }
+        });
+        for (int i=mMaxEntries; i<files.length; ++i) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * The state last saved, empty if there is none or it can't be read.
+     */
+    public Properties readState() {
+        Properties state = new Properties();
+        File file = new File(mDir, STATE_FILE);
+        if (file.isFile()) {
+            try {
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    state.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                state.clear();
+            }
+        }
+        return state;
+    }
+
+    public void writeState(Properties state) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Can't create " + mDir);
+        }
+        File file = new File(mDir, STATE_FILE);
+        File temp = new File(mDir, STATE_FILE + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            state.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Can't rename " + temp + " to " + file);
+        }
+    }
+}
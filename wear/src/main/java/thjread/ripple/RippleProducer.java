@@ -0,0 +1,385 @@
+package thjread.ripple;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Worker thread that rasterizes and fully prepares the ripple for a requested time string ahead
+ * of when it is displayed.
+ *
+ * The draw thread posts the time it will want next with {@link #request(int)} and later collects
+ * the finished sequence with {@link #take(CharSequence)}. Sequences it has finished showing are
+ * handed back with {@link #recycle(FrameSequence)} and reused. All exchanges go through atomic
+ * variables and a fixed set of spare slots, so the draw thread never blocks on the worker and
+ * allocates nothing.
+ *
+ * How frames are kept is chosen with {@link #setFrames(int)}: every frame stored in a
+ * {@link RippleSequence}, which can also be summed from a {@link GlyphResponseCache}; a
+ * {@link SpectralSequence} computing frames in closed form as they are drawn; a
+ * {@link StreamingSequence} stepping through them with constant memory; or a
+ * {@link QuantizedSequence} keeping every frame at 8 or 16 bits a cell.
+ *
+ * With {@link #setWarmStart}, the worker also prepares the ripple shown when leaving ambient
+ * mode, which dissolves the ambient time, for a given minute: asked for with
+ * {@link #requestWarmStart(int)} and collected with {@link #takeWarmStart(CharSequence)}. These
+ * are quantized and saved to a {@link RippleDiskCache}, so a recreated engine can load the one
+ * for the current minute with {@link #loadWarmStart(CharSequence)} and show its first frames
+ * without simulating.
+ */
+public class RippleProducer implements Runnable {
+    public static final int FRAMES_STORED = 0;
+    public static final int FRAMES_SPECTRAL = 1;
+    public static final int FRAMES_STREAMED = 2;
+    public static final int FRAMES_QUANTIZED = 3;
+
+    private static final int NO_REQUEST = -1;
+    private static final int SPARE_SLOTS = 4;
+
+    private final TextRasterizer mText;
+    private final int num_x;
+    private final int num_y;
+    private final int mLength;
+    private final float mDiff;
+    private final AtomicInteger mRequest = new AtomicInteger(NO_REQUEST);
+    private final AtomicReference<FrameSequence> mReady = new AtomicReference<>();
+    private final AtomicReferenceArray<FrameSequence> mSpare =
+            new AtomicReferenceArray<>(SPARE_SLOTS);
+    private final TimeText mTime = new TimeText(true);
+    private final AtomicInteger mWarmRequest = new AtomicInteger(NO_REQUEST);
+    private final AtomicReference<FrameSequence> mWarm = new AtomicReference<>();
+    private final AtomicReference<Properties> mState = new AtomicReference<>();
+    private final TimeText mWarmTime = new TimeText(false);
+    private RippleDiskCache mDiskCache;
+    private String mWarmKeyPrefix;
+    private TextRasterizer mWarmText;
+    private float mWarmDiff;
+    private final Thread mThread;
+    private volatile boolean mQuit;
+    private FlatGridSim mSim;
+    private GlyphResponseCache mGlyphCache;
+    private FrameStats mStats = new FrameStats();
+    private int mFrames = FRAMES_STORED;
+    private int mQuantizedBits = 16;
+    private int mKeyInterval = 8;
+    private float[] mPenX = new float[8];
+
+    /**
+     * @param text text renderer used only by the worker thread
+     * @param length number of frames in each sequence
+     * @param diff time step passed to the simulation
+     */
+    public RippleProducer(TextRasterizer text, int num_x, int num_y, int length, float diff) {
+        mText = text;
+        this.num_x = num_x;
+        this.num_y = num_y;
+        mLength = length;
+        mDiff = diff;
+        mSim = new FlatGridSim(num_x, num_y);
+        mThread = new Thread(this, "RippleProducer");
+        mThread.setPriority(Thread.NORM_PRIORITY - 1);
+    }
+
+    /**
+     * Steps the simulation in this many stripes of rows in parallel, see {@link ParallelGridSim}.
+     * The sim is shared by every sequence this producer makes, so this must be called before
+     * {@link #setGlyphCache(long)} and before any sequence is made.
+     */
+    public void setStripes(int stripes) {
+        if (mSim instanceof ParallelGridSim) {
+            ((ParallelGridSim) mSim).quit();
+        }
+        mSim = stripes > 1 ? new ParallelGridSim(num_x, num_y, stripes)
+                : new FlatGridSim(num_x, num_y);
+    }
+
+    /**
+     * Sets where the time taken to prepare each ripple is recorded. Must be called before
+     * {@link #start()}.
+     */
+    public void setStats(FrameStats stats) {
+        mStats = stats;
+    }
+
+    /**
+     * Sets how frames are kept, one of the FRAMES_ constants. Must be called before
+     * {@link #start()}.
+     */
+    public void setFrames(int frames) {
+        mFrames = frames;
+        if (frames != FRAMES_STORED) {
+            mGlyphCache = null;
+        }
+    }
+
+    /**
+     * Sets the precision and key interval of quantized frames, see {@link QuantizedFrames}. Must
+     * be called before any sequence is made.
+     */
+    public void setQuantization(int bits, int keyInterval) {
+        mQuantizedBits = bits;
+        mKeyInterval = keyInterval;
+    }
+
+    /**
+     * Prepares warm-start ripples of the ambient time drawn by text, with time step diff, and
+     * keeps them in cache under keyPrefix followed by the text. The prefix must identify
+     * everything else the frames depend on. Must be called before {@link #start()}.
+     *
+     * @param text text renderer used only by the worker thread, except in
+     *             {@link #loadWarmStart(CharSequence)}
+     */
+    public void setWarmStart(RippleDiskCache cache, String keyPrefix, TextRasterizer text,
+                             float diff) {
+        mDiskCache = cache;
+        mWarmKeyPrefix = keyPrefix;
+        mWarmText = text;
+        mWarmDiff = diff;
+    }
+
+    /**
+     * Builds stored sequences from cached per-glyph responses rather than by simulation. Must be
+     * called before {@link #start()}, and has no effect unless frames are stored.
+     */
+    public void setGlyphCache(long budgetBytes) {
+        if (mFrames == FRAMES_STORED) {
+            mGlyphCache = new GlyphResponseCache(mSim, mLength, mDiff, budgetBytes, mText);
+        }
+    }
+
+    /**
+     * Makes an empty sequence of the kind this producer fills.
+     */
+    public FrameSequence newSequence() {
+        switch (mFrames) {
+            case FRAMES_SPECTRAL:
+                return new SpectralSequence(num_x, num_y, mLength);
+            case FRAMES_STREAMED:
+                return new StreamingSequence(mSim, mLength);
+            case FRAMES_QUANTIZED:
+                return new QuantizedSequence(mSim, mLength, mQuantizedBits, mKeyInterval);
+            default:
+                return new RippleSequence(mSim, mLength);
+        }
+    }
+
+    private int kindOf(FrameSequence sequence) {
+        if (sequence instanceof SpectralSequence) {
+            return FRAMES_SPECTRAL;
+        } else if (sequence instanceof StreamingSequence) {
+            return FRAMES_STREAMED;
+        } else if (sequence instanceof QuantizedSequence) {
+            return ((QuantizedSequence) sequence).canStart() ? FRAMES_QUANTIZED : -1;
+        }
+        return FRAMES_STORED;
+    }
+
+    public void start() {
+        mThread.start();
+    }
+
+    /**
+     * Stops the worker thread, and the simulation's threads if it has any.
+     */
+    public void quit() {
+        mQuit = true;
+        LockSupport.unpark(mThread);
+        if (mSim instanceof ParallelGridSim) {
+            ((ParallelGridSim) mSim).quit();
+        }
+    }
+
+    /**
+     * Asks for the sequence showing the time secondOfDay seconds after midnight, as
+     * {@link TimeText} with seconds formats it, replacing any request not yet started.
+     */
+    public void request(int secondOfDay) {
+        mRequest.set(secondOfDay);
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * Returns the finished sequence for text and transfers it to the caller, or null if it isn't
+     * ready.
+     */
+    public FrameSequence take(CharSequence text) {
+        FrameSequence ready = mReady.get();
+        if (ready != null && ready.getText() != null && ready.getText().contentEquals(text)
+                && mReady.compareAndSet(ready, null)) {
+            return ready;
+        }
+        return null;
+    }
+
+    /**
+     * Asks for the warm-start ripple of the ambient time secondOfDay seconds after midnight, as
+     * {@link TimeText} without seconds formats it. It is loaded from the disk cache if it is
+     * there, and otherwise simulated and saved, once nothing else is requested.
+     */
+    public void requestWarmStart(int secondOfDay) {
+        if (mDiskCache != null) {
+            mWarmRequest.set(secondOfDay);
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    /**
+     * Writes state to the disk cache set with {@link #setWarmStart} on the worker thread,
+     * replacing any state not yet written. State still pending when the producer quits is
+     * written before the worker exits.
+     */
+    public void saveState(Properties state) {
+        if (mDiskCache != null) {
+            mState.set(state);
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    private void writeState() {
+        Properties state = mState.getAndSet(null);
+        if (state != null) {
+            try {
+                mDiskCache.writeState(state);
+            } catch (IOException e) {
+                // Only costs the next engine a few seconds at the wrong quality.
+            }
+        }
+    }
+
+    /**
+     * Returns the warm-start ripple for text and transfers it to the caller, or null if it isn't
+     * ready. It is played as it is, without restarting it.
+     */
+    public FrameSequence takeWarmStart(CharSequence text) {
+        FrameSequence warm = mWarm.get();
+        if (warm != null && warm.getText() != null && warm.getText().contentEquals(text)
+                && mWarm.compareAndSet(warm, null)) {
+            return warm;
+        }
+        return null;
+    }
+
+    /**
+     * Maps the warm-start ripple for text from the disk cache, if it is there, on the calling
+     * thread, so that it is ready before the worker has run.
+     */
+    public void loadWarmStart(CharSequence text) {
+        if (mDiskCache != null) {
+            FrameSequence warm = loadWarm(text.toString());
+            if (warm != null) {
+                mWarm.set(warm);
+            }
+        }
+    }
+
+    private FrameSequence loadWarm(String text) {
+        QuantizedFrames frames = mDiskCache.load(mWarmKeyPrefix + text);
+        if (frames == null || frames.getNumX() != num_x || frames.getNumY() != num_y
+                || frames.getLength() != mLength) {
+            return null;
+        }
+        return new QuantizedSequence(frames);
+    }
+
+    private void prepareWarmStart(int secondOfDay) {
+        mWarmTime.setSecondOfDay(secondOfDay);
+        FrameSequence current = mWarm.get();
+        if (current != null && current.getText() != null
+                && current.getText().contentEquals(mWarmTime)) {
+            return;
+        }
+        String text = mWarmTime.toString();
+        FrameSequence warm = loadWarm(text);
+        if (warm == null) {
+            QuantizedSequence sequence = new QuantizedSequence(mSim, mLength, 16, mKeyInterval);
+            mWarmText.render(text, mSim, sequence.getInitial());
+            sequence.start(text, mWarmDiff);
+            sequence.precompute();
+            try {
+                mDiskCache.save(mWarmKeyPrefix + text, sequence.getFrames());
+            } catch (IOException e) {
+                // Still worth keeping in memory for leaving ambient mode.
+            }
+            warm = sequence;
+        }
+        mWarm.set(warm);
+    }
+
+    /**
+     * Returns a sequence to the worker for reuse. The caller must not touch it afterwards.
+     */
+    public void recycle(FrameSequence sequence) {
+        if (sequence.getSim().getNumX() == num_x && sequence.getSim().getNumY() == num_y
+                && sequence.getLength() == mLength
+                && kindOf(sequence) == mFrames) {
+            offerSpare(sequence);
+        }
+    }
+
+    /**
+     * Keeps sequence for reuse if there is a free slot, otherwise drops it.
+     */
+    private void offerSpare(FrameSequence sequence) {
+        for (int i=0; i<SPARE_SLOTS; ++i) {
+            if (mSpare.compareAndSet(i, null, sequence)) {
+                return;
+            }
+        }
+    }
+
+    private FrameSequence pollSpare() {
+        for (int i=0; i<SPARE_SLOTS; ++i) {
+            FrameSequence sequence = mSpare.getAndSet(i, null);
+            if (sequence != null) {
+                return sequence;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void run() {
+        while (!mQuit) {
+            writeState();
+            int secondOfDay = mRequest.getAndSet(NO_REQUEST);
+            if (secondOfDay == NO_REQUEST) {
+                int warm = mWarmRequest.getAndSet(NO_REQUEST);
+                if (warm != NO_REQUEST) {
+                    prepareWarmStart(warm);
+                } else {
+                    LockSupport.park(this);
+                }
+                continue;
+            }
+            long start = mStats.begin();
+            mTime.setSecondOfDay(secondOfDay);
+            String text = mTime.toString();
+
+            FrameSequence sequence = pollSpare();
+            if (sequence == null) {
+                sequence = newSequence();
+            }
+            if (mGlyphCache != null) {
+                if (mPenX.length < text.length()) {
+                    mPenX = new float[text.length()];
+                }
+                float y = mText.layout(text, mPenX);
+                mGlyphCache.fill((RippleSequence) sequence, text, mPenX, y);
+            } else {
+                mText.render(text, sequence.getSim(), sequence.getInitial());
+                sequence.start(text, mDiff);
+            }
+            sequence.precompute();
+            mStats.end(FrameStats.PHASE_PRODUCE, start);
+
+            FrameSequence superseded = mReady.getAndSet(sequence);
+            if (superseded != null) {
+                offerSpare(superseded);
+            }
+        }
+        writeState();
+    }
+}
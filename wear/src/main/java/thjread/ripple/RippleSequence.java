@@ -0,0 +1,131 @@
+package thjread.ripple;
+
+/**
+ * A ripple stored as every one of its frames, computed by stepping the simulation forward as far
+ * as has been asked for.
+ */
+public class RippleSequence implements FrameSequence {
+    private final FlatGridSim mSim;
+    private final float[][] mFrames;
+    private final float[] mMotion;
+    private boolean mMotionValid;
+    private int mSimulated;
+    private long mSteps;
+    private float mDiff;
+    private String mText;
+
+    public RippleSequence(int num_x, int num_y, int length) {
+        this(new FlatGridSim(num_x, num_y), length);
+    }
+
+    /**
+     * @param sim simulation used to step the frames, which may be shared between sequences
+     */
+    public RippleSequence(FlatGridSim sim, int length) {
+        mSim = sim;
+        mFrames = new float[length][];
+        for (int i=0; i<length; ++i) {
+            mFrames[i] = mSim.newPlane();
+        }
+        mMotion = new float[length];
+    }
+
+    @Override
+    public long getSteps() {
+        return mSteps;
+    }
+
+    @Override
+    public FlatGridSim getSim() {
+        return mSim;
+    }
+
+    @Override
+    public int getLength() {
+        return mFrames.length;
+    }
+
+    @Override
+    public String getText() {
+        return mText;
+    }
+
+    @Override
+    public float[] getInitial() {
+        return mFrames[0];
+    }
+
+    /**
+     * Number of leading frames that have been computed.
+     */
+    public int getSimulated() {
+        return mSimulated;
+    }
+
+    @Override
+    public void start(String text, float diff) {
+        mText = text;
+        System.arraycopy(mFrames[0], 0, mFrames[1], 0, mFrames[0].length);
+        restart(diff);
+    }
+
+    @Override
+    public void restart(float diff) {
+        mDiff = diff;
+        mSimulated = 2;
+        mMotionValid = false;
+        mSim.beginSequence();
+    }
+
+    /**
+     * Marks every frame as computed, for sequences whose frames were written directly with time
+     * step diff.
+     */
+    public void finish(String text, float diff) {
+        mText = text;
+        mDiff = diff;
+        mSimulated = mFrames.length;
+        mMotionValid = false;
+    }
+
+    @Override
+    public void precompute() {
+        simulateTo(mFrames.length-1);
+        if (!mMotionValid) {
+            for (int i=0; i<mFrames.length-1; ++i) {
+                mMotion[i] = mSim.maxChange(mFrames[i], mFrames[i+1]);
+            }
+            mMotionValid = true;
+        }
+    }
+
+    @Override
+    public float[] getMotion() {
+        return mMotionValid ? mMotion : null;
+    }
+
+    /**
+     * Storage for frame index, whether or not it has been computed.
+     */
+    public float[] getStoredFrame(int index) {
+        return mFrames[index];
+    }
+
+    @Override
+    public float[] getFrame(int index) {
+        simulateTo(index);
+        return mFrames[index];
+    }
+
+    /**
+     * Computes frames up to and including index, or to the end of the sequence.
+     */
+    public void simulateTo(int index) {
+        int last = Math.min(index, mFrames.length-1);
+        while (mSimulated <= last) {
+            mSim.step(mFrames[mSimulated-2], mFrames[mSimulated-1], mFrames[mSimulated], mDiff);
+            mSimulated++;
+            mSteps++;
+        }
+    }
+}
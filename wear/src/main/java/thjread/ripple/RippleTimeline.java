@@ -0,0 +1,195 @@
+package thjread.ripple;
+
+/**
+ * When each ripple starts, and which of its frames is shown at what fade, for interactive
+ * drawing.
+ *
+ * A ripple starts every ripple time, showing the time it will be halfway through the next one.
+ * On leaving ambient mode, or after a frame a whole ripple late, what is shown dissolves one
+ * frame per redraw until a new ripple starts, a second or a fifth of a second later. Time comes
+ * from a {@link Clock}, so whole schedules can be replayed without a watch or real time.
+ *
+ * Redraw timing within a ripple is left to a {@link RedrawScheduler}.
+ */
+public class RippleTimeline {
+    /**
+     * Source of the current time in ms.
+     */
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /** Showing a ripple. */
+    public static final int INTERACTIVE = 0;
+    /** Dissolving what was shown until the next ripple starts. */
+    public static final int DISSOLVING = 1;
+    /** In ambient mode, or not drawn yet; the next interactive frame starts a dissolve. */
+    public static final int AMBIENT = 2;
+
+    /**
+     * How long the dissolve on leaving ambient mode lasts, and after a late frame.
+     */
+    private static final int AMBIENT_DISSOLVE_MS = 1000;
+    private static final int LATE_DISSOLVE_MS = 200;
+    /**
+     * Frame a dissolve starts from.
+     */
+    private static final int DISSOLVE_START_FRAME = 2;
+
+    private final Clock mClock;
+    private final RedrawScheduler mScheduler = new RedrawScheduler();
+    private int mRippleTime;
+    private int mState = AMBIENT;
+    private long mRippleStart;
+    private int mDissolveFrame;
+    private int mLength;
+    private boolean mLate;
+    private boolean mFromAmbient;
+    private long mTextTime;
+
+    public RippleTimeline(Clock clock) {
+        mClock = clock;
+    }
+
+    public long now() {
+        return mClock.currentTimeMillis();
+    }
+
+    /**
+     * @param rippleTime length of a ripple in ms
+     * @param simRate simulated frames per second
+     * @param interpolate whether fractional positions are displayed
+     */
+    public void setTimeline(int rippleTime, int simRate, boolean interpolate) {
+        mRippleTime = rippleTime;
+        mScheduler.setTimeline(rippleTime, simRate, interpolate);
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public boolean isDissolving() {
+        return mState == DISSOLVING;
+    }
+
+    /**
+     * Records an ambient frame, so the next interactive frame dissolves it.
+     */
+    public void ambientFrame() {
+        mState = AMBIENT;
+    }
+
+    /**
+     * Starts the next ripple if one is due at now, returning whether one was. The other getters
+     * then describe it until the next boundary.
+     */
+    public boolean boundary(long now) {
+        if (now < mRippleStart + mRippleTime && mState != AMBIENT) {
+            return false;
+        }
+        mTextTime = (long) (now + 1.5*mRippleTime);
+        mLate = now >= mRippleStart + 2*mRippleTime;
+        mFromAmbient = mState == AMBIENT;
+        mRippleStart = now;
+
+        if (mState == AMBIENT) {
+            dissolve(now, AMBIENT_DISSOLVE_MS);
+        } else if (mState == DISSOLVING) {
+            mState = INTERACTIVE;
+        }
+        if (mLate && mState != DISSOLVING) {
+            dissolve(now, LATE_DISSOLVE_MS);
+        }
+        return true;
+    }
+
+    private void dissolve(long now, int ms) {
+        mState = DISSOLVING;
+        mRippleStart = now - (mRippleTime - ms);
+        mTextTime = (long) (now + ms + 0.5*mRippleTime);
+        mDissolveFrame = DISSOLVE_START_FRAME;
+    }
+
+    /**
+     * Whether the last boundary came at least a whole ripple late.
+     */
+    public boolean isLate() {
+        return mLate;
+    }
+
+    public boolean isFromAmbient() {
+        return mFromAmbient;
+    }
+
+    /**
+     * Time whose text the ripple after the current one should show.
+     */
+    public long getTextTime() {
+        return mTextTime;
+    }
+
+    /**
+     * Time the current ripple started, or would have for a dissolve to end on time.
+     */
+    public long getRippleStart() {
+        return mRippleStart;
+    }
+
+    /**
+     * Sets the frames of the current ripple, measured by motion, which may be null.
+     */
+    public void setRipple(float[] motion, int length) {
+        mLength = length;
+        mScheduler.setRipple(mRippleStart, motion, length);
+    }
+
+    /**
+     * Frame to show at now.
+     */
+    public float position(long now) {
+        if (mState == DISSOLVING) {
+            return mDissolveFrame;
+        }
+        return mScheduler.position(now - mRippleStart);
+    }
+
+    /**
+     * Brightness scale to show at now.
+     */
+    public float scale(long now) {
+        if (mState == DISSOLVING) {
+            float x = (mRippleStart + mRippleTime - now)/1000f;
+            return x*(2-x);
+        }
+        return mScheduler.scale(now - mRippleStart);
+    }
+
+    /**
+     * Records that the frame for now has been drawn. Dissolves move on a frame per redraw.
+     */
+    public void drawn(long now) {
+        if (mState == DISSOLVING) {
+            if (mDissolveFrame < mLength-1) {
+                mDissolveFrame++;
+            }
+        } else {
+            mScheduler.drawn(now);
+        }
+    }
+
+    /**
+     * Time from now until the next interactive redraw: every interval while dissolving, and as
+     * {@link RedrawScheduler#nextRedrawDelay} decides otherwise.
+     */
+    public long nextRedrawDelay(long now, long interval) {
+        return mState == INTERACTIVE ? mScheduler.nextRedrawDelay(now, interval) : interval;
+    }
+}
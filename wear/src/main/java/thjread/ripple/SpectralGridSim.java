@@ -0,0 +1,178 @@
+package thjread.ripple;
+
+/**
+ * Closed-form solution of the {@link FlatGridSim} update, giving any frame directly.
+ *
+ * The reflective boundary makes the update's Laplacian the Neumann one, whose eigenvectors are
+ * the 2D DCT-II basis functions cos(pi k (x+1/2) / N). In a mode with Laplacian eigenvalue mu,
+ * the update a[n+1] = (2 + c mu) a[n] - a[n-1] with c = 0.35 diff and a[0] = a[1] has the
+ * solution
+ *
+ *     a[n] = a[0] cos((n - 1/2) theta) / cos(theta/2),   cos(theta) = 1 + c mu / 2,
+ *
+ * so the initial heights are transformed once and each frame costs one inverse transform,
+ * however far into the ripple it is. Transforms are direct separable sums, which at watch grid
+ * sizes are cheaper than setting up an FFT.
+ */
+public class SpectralGridSim {
+    private final FlatGridSim mSim;
+    private final int num_x;
+    private final int num_y;
+    private final double[] mCosX;
+    private final double[] mCosXT;
+    private final double[] mCosY;
+    private final double[] mLambdaX;
+    private final double[] mLambdaY;
+    private final double[] mSpectrum;
+    private final double[] mTheta;
+    private final double[] mGain;
+    private final double[] mModes;
+    private final double[] mRows;
+    private float mDiff = Float.NaN;
+
+    public SpectralGridSim(int num_x, int num_y) {
+        this.num_x = num_x;
+        this.num_y = num_y;
+        mSim = new FlatGridSim(num_x, num_y);
+        mCosX = cosineTable(num_x);
+        mCosXT = new double[num_x*num_x];
+        for (int k=0; k<num_x; ++k) {
+            for (int x=0; x<num_x; ++x) {
+                mCosXT[x*num_x + k] = mCosX[k*num_x + x];
+            }
+        }
+        mCosY = cosineTable(num_y);
+        mLambdaX = eigenvalues(num_x);
+        mLambdaY = eigenvalues(num_y);
+        mSpectrum = new double[num_x*num_y];
+        mTheta = new double[num_x*num_y];
+        mGain = new double[num_x*num_y];
+        mModes = new double[num_x*num_y];
+        mRows = new double[num_x*num_y];
+    }
+
+    /**
+     * table[k*n + x] = cos(pi k (x+1/2) / n).
+     */
+    private static double[] cosineTable(int n) {
+        double[] table = new double[n*n];
+        for (int k=0; k<n; ++k) {
+            for (int x=0; x<n; ++x) {
+                table[k*n + x] = Math.cos(Math.PI*k*(x+0.5)/n);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Eigenvalues of the 1D Laplacian with reflective ends, -4 sin^2(pi k / 2n).
+     */
+    private static double[] eigenvalues(int n) {
+        double[] lambda = new double[n];
+        for (int k=0; k<n; ++k) {
+            double s = Math.sin(Math.PI*k/(2.0*n));
+            lambda[k] = -4*s*s;
+        }
+        return lambda;
+    }
+
+    public FlatGridSim getSim() {
+        return mSim;
+    }
+
+    /**
+     * Transforms the heights of plane, laid out by {@link #getSim()}, into the initial spectrum.
+     */
+    public void setInitial(float[] plane) {
+        // Along x: mRows[y][kx].
+        for (int y=0; y<num_y; ++y) {
+            int row = mSim.index(0, y);
+            for (int kx=0; kx<num_x; ++kx) {
+                double sum = 0;
+                int c = kx*num_x;
+                for (int x=0; x<num_x; ++x) {
+                    sum += plane[row + x]*mCosX[c + x];
+                }
+                mRows[y*num_x + kx] = sum;
+            }
+        }
+        // Along y, folding in the inverse transform's normalisation.
+        for (int ky=0; ky<num_y; ++ky) {
+            int out = ky*num_x;
+            for (int kx=0; kx<num_x; ++kx) {
+                mSpectrum[out + kx] = 0;
+            }
+            for (int y=0; y<num_y; ++y) {
+                double c = mCosY[ky*num_y + y];
+                int in = y*num_x;
+                for (int kx=0; kx<num_x; ++kx) {
+                    mSpectrum[out + kx] += mRows[in + kx]*c;
+                }
+            }
+            double wy = (ky == 0 ? 1.0 : 2.0)/num_y;
+            for (int kx=0; kx<num_x; ++kx) {
+                mSpectrum[out + kx] *= wy*(kx == 0 ? 1.0 : 2.0)/num_x;
+            }
+        }
+    }
+
+    /**
+     * Sets the time step between frames.
+     *
+     * @throws IllegalArgumentException if the update is unstable at this step
+     */
+    public void setDiff(float diff) {
+        if (diff == mDiff) {
+            return;
+        }
+        double c = 0.35*diff;
+        for (int ky=0; ky<num_y; ++ky) {
+            for (int kx=0; kx<num_x; ++kx) {
+                double beta = 1 + c*(mLambdaX[kx] + mLambdaY[ky])/2;
+                if (beta < -1) {
+                    throw new IllegalArgumentException("Time step " + diff + " is unstable");
+                }
+                double theta = Math.acos(Math.min(beta, 1));
+                mTheta[ky*num_x + kx] = theta;
+                mGain[ky*num_x + kx] = 1/Math.cos(theta/2);
+            }
+        }
+        mDiff = diff;
+    }
+
+    /**
+     * Writes frame n of the ripple into plane.
+     */
+    public void frame(int n, float[] plane) {
+        for (int i=0; i<mModes.length; ++i) {
+            mModes[i] = mSpectrum[i]*Math.cos((n - 0.5)*mTheta[i])*mGain[i];
+        }
+        // Inverse along y: mRows[y][kx].
+        for (int y=0; y<num_y; ++y) {
+            int out = y*num_x;
+            for (int kx=0; kx<num_x; ++kx) {
+                mRows[out + kx] = 0;
+            }
+            for (int ky=0; ky<num_y; ++ky) {
+                double c = mCosY[ky*num_y + y];
+                int in = ky*num_x;
+                for (int kx=0; kx<num_x; ++kx) {
+                    mRows[out + kx] += mModes[in + kx]*c;
+                }
+            }
+        }
+        // Inverse along x.
+        for (int y=0; y<num_y; ++y) {
+            int row = mSim.index(0, y);
+            int in = y*num_x;
+            for (int x=0; x<num_x; ++x) {
+                double sum = 0;
+                int c = x*num_x;
+                for (int kx=0; kx<num_x; ++kx) {
+                    sum += mRows[in + kx]*mCosXT[c + kx];
+                }
+                plane[row + x] = (float) sum;
+            }
+        }
+    }
+}
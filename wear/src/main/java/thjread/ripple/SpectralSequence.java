@@ -0,0 +1,84 @@
+package thjread.ripple;
+
+/**
+ * A ripple kept as the spectrum of its initial heights, with each frame computed when it is
+ * asked for by {@link SpectralGridSim}. Memory does not depend on the number of frames, and
+ * frames may be read in any order at the same cost.
+ */
+public class SpectralSequence implements FrameSequence {
+    private final SpectralGridSim mSpectral;
+    private final int mLength;
+    private final float[] mInitial;
+    private final float[] mFrame;
+    private int mFrameIndex = -1;
+    private String mText;
+
+    public SpectralSequence(int num_x, int num_y, int length) {
+        mSpectral = new SpectralGridSim(num_x, num_y);
+        mLength = length;
+        mInitial = getSim().newPlane();
+        mFrame = getSim().newPlane();
+    }
+
+    /**
+     * Always 0, since frames are computed directly rather than stepped to.
+     */
+    @Override
+    public long getSteps() {
+        return 0;
+    }
+
+    @Override
+    public FlatGridSim getSim() {
+        return mSpectral.getSim();
+    }
+
+    @Override
+    public int getLength() {
+        return mLength;
+    }
+
+    @Override
+    public String getText() {
+        return mText;
+    }
+
+    @Override
+    public float[] getInitial() {
+        return mInitial;
+    }
+
+    @Override
+    public void start(String text, float diff) {
+        mText = text;
+        mSpectral.setInitial(mInitial);
+        restart(diff);
+    }
+
+    @Override
+    public void restart(float diff) {
+        mSpectral.setDiff(diff);
+        mFrameIndex = -1;
+    }
+
+    @Override
+    public void precompute() {
+    }
+
+    /**
+     * Always null, since measuring would mean computing every frame.
+     */
+    @Override
+    public float[] getMotion() {
+        return null;
+    }
+
+    @Override
+    public float[] getFrame(int index) {
+        if (index != mFrameIndex) {
+            mSpectral.frame(index, mFrame);
+            mFrameIndex = index;
+        }
+        return mFrame;
+    }
+}
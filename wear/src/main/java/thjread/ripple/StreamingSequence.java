@@ -0,0 +1,160 @@
+package thjread.ripple;
+
+/**
+ * A ripple played back from a handful of planes, whatever its length.
+ *
+ * The update is time-reversible: the frame before a pair (k, k+1) is step(old = k+1, here = k),
+ * the same kernel run the other way. So rather than keeping every frame, this keeps the initial
+ * heights, the last two frames (found by simulating forward once in {@link #precompute()}), and
+ * a cursor pair that is stepped one frame at a time towards whatever frame is asked for,
+ * restarting from whichever anchor is closest. Playing the first half of a ripple in reverse from
+ * the end and the second half forward from the start then costs one step per new frame.
+ *
+ * Stepping backward accumulates rounding error where stepping forward from the initial heights
+ * does not; over the length of a ripple it stays around 1e-4 of the wave height.
+ */
+public class StreamingSequence implements FrameSequence {
+    private final FlatGridSim mSim;
+    private final int mLength;
+    private final float[] mInitial;
+    private final float[] mEndLo;
+    private final float[] mEndHi;
+    private final float[] mMotion;
+    private float[] mLo;
+    private float[] mHi;
+    private int mCursor;
+    private long mSteps;
+    private boolean mEndValid;
+    private float mDiff;
+    private String mText;
+
+    public StreamingSequence(int num_x, int num_y, int length) {
+        this(new FlatGridSim(num_x, num_y), length);
+    }
+
+    /**
+     * @param sim simulation used to step the frames, which may be shared between sequences
+     */
+    public StreamingSequence(FlatGridSim sim, int length) {
+        mSim = sim;
+        mLength = length;
+        mInitial = mSim.newPlane();
+        mEndLo = mSim.newPlane();
+        mEndHi = mSim.newPlane();
+        mLo = mSim.newPlane();
+        mHi = mSim.newPlane();
+        mMotion = new float[length];
+    }
+
+    @Override
+    public long getSteps() {
+        return mSteps;
+    }
+
+    @Override
+    public FlatGridSim getSim() {
+        return mSim;
+    }
+
+    @Override
+    public int getLength() {
+        return mLength;
+    }
+
+    @Override
+    public String getText() {
+        return mText;
+    }
+
+    @Override
+    public float[] getInitial() {
+        return mInitial;
+    }
+
+    @Override
+    public void start(String text, float diff) {
+        mText = text;
+        restart(diff);
+    }
+
+    @Override
+    public void restart(float diff) {
+        mDiff = diff;
+        mEndValid = false;
+        resetTo(0, mInitial, mInitial);
+    }
+
+    /**
+     * Simulates forward from the start to the last two frames, measuring the motion of each, and
+     * keeps them as the anchor for reverse playback.
+     */
+    @Override
+    public void precompute() {
+        if (mEndValid) {
+            return;
+        }
+        seek(0);
+        mMotion[0] = mSim.maxChange(mLo, mHi);
+        while (mCursor < mLength-2) {
+            seek(mCursor+1);
+            mMotion[mCursor] = mSim.maxChange(mLo, mHi);
+        }
+        System.arraycopy(mLo, 0, mEndLo, 0, mLo.length);
+        System.arraycopy(mHi, 0, mEndHi, 0, mHi.length);
+        mEndValid = true;
+    }
+
+    @Override
+    public float[] getMotion() {
+        return mEndValid ? mMotion : null;
+    }
+
+    @Override
+    public float[] getFrame(int index) {
+        if (index == mCursor) {
+            return mLo;
+        } else if (index == mCursor+1) {
+            return mHi;
+        }
+        seek(Math.min(index, mLength-2));
+        return index == mCursor ? mLo : mHi;
+    }
+
+    /**
+     * Moves the cursor pair to (index, index+1) from whichever starting point needs fewest steps.
+     */
+    private void seek(int index) {
+        int fromCursor = Math.abs(index - mCursor);
+        int fromStart = index;
+        int fromEnd = mEndValid ? mLength-2 - index : Integer.MAX_VALUE;
+        if (fromStart < fromCursor && fromStart <= fromEnd) {
+            resetTo(0, mInitial, mInitial);
+        } else if (fromEnd < fromCursor) {
+            resetTo(mLength-2, mEndLo, mEndHi);
+        }
+
+        while (mCursor < index) {
+            mSim.step(mLo, mHi, mLo, mDiff);
+            float[] t = mLo;
+            mLo = mHi;
+            mHi = t;
+            mCursor++;
+            mSteps++;
+        }
+        while (mCursor > index) {
+            mSim.step(mHi, mLo, mHi, mDiff);
+            float[] t = mHi;
+            mHi = mLo;
+            mLo = t;
+            mCursor--;
+            mSteps++;
+        }
+    }
+
+    private void resetTo(int index, float[] lo, float[] hi) {
+        System.arraycopy(lo, 0, mLo, 0, lo.length);
+        System.arraycopy(hi, 0, mHi, 0, hi.length);
+        mCursor = index;
+        mSim.beginSequence();
+    }
+}
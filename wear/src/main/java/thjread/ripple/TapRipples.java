@@ -0,0 +1,173 @@
+package thjread.ripple;
+
+/**
+ * Ripples started by taps, simulated as a separate field and added to the displayed frame.
+ *
+ * The wave equation is linear, so a tap ripple on top of a time ripple is the sum of the two
+ * simulated apart. Taps therefore leave the time ripple's frames, however they are stored, as
+ * they are; only this field is stepped, a few steps each frame, on the drawing thread. A tap
+ * adds its impulse to the field straight away, so it shows on the next frame, and further taps
+ * add to the same field at no extra cost. The field runs on a {@link TiledGridSim}, so stepping
+ * costs follow the area the tap ripples have reached.
+ *
+ * Ripples fade out over the lifetime after the last tap, and the field is then cleared. Not
+ * thread safe; use from the drawing thread.
+ */
+public class TapRipples {
+    /**
+     * Height at the centre of a tap, the most text can be displaced by.
+     */
+    public static final float TAP_HEIGHT = 10;
+    /**
+     * Radius in cells over which a tap's height falls to zero.
+     */
+    public static final int TAP_RADIUS = 2;
+    /**
+     * Most steps taken in one frame. Further behind than this and the ripples slow down rather
+     * than the frame.
+     */
+    public static final int MAX_STEPS_PER_FRAME = 4;
+
+    private final TiledGridSim mSim;
+    private final int mSimRate;
+    private final float mDiff;
+    private final long mLifetimeMs;
+    private float[] mOld;
+    private float[] mHere;
+    private float[] mNext;
+    private final float[] mSum;
+    private boolean mActive;
+    private long mStartTime;
+    private long mSteps;
+    private long mLastTap;
+
+    /**
+     * @param simRate steps per second
+     * @param diff time step, as the time ripples use
+     * @param lifetimeMs how long ripples show for after the last tap
+     */
+    public TapRipples(int num_x, int num_y, int simRate, float diff, long lifetimeMs) {
+        mSim = new TiledGridSim(num_x, num_y);
+        mSimRate = simRate;
+        mDiff = diff;
+        mLifetimeMs = lifetimeMs;
+        mOld = mSim.newPlane();
+        mHere = mSim.newPlane();
+        mNext = mSim.newPlane();
+        mSum = mSim.newPlane();
+    }
+
+    public FlatGridSim getSim() {
+        return mSim;
+    }
+
+    /**
+     * Steps taken since the first of the current taps.
+     */
+    public long getSteps() {
+        return mSteps;
+    }
+
+    /**
+     * Starts a ripple at grid cell (x, y) at time now, in milliseconds. Cells outside the grid
+     * are ignored.
+     */
+    public void tap(int x, int y, long now) {
+        if (x < 0 || x >= mSim.getNumX() || y < 0 || y >= mSim.getNumY()) {
+            return;
+        }
+        if (!isActive(now)) {
+            mActive = true;
+            mStartTime = now;
+            mSteps = 0;
+        }
+        mLastTap = now;
+        // Added to both planes, so the impulse starts at rest and spreads out.
+        for (int dy=-TAP_RADIUS; dy<=TAP_RADIUS; ++dy) {
+            for (int dx=-TAP_RADIUS; dx<=TAP_RADIUS; ++dx) {
+                int cx = x + dx;
+                int cy = y + dy;
+                float r = (float) Math.sqrt(dx*dx + dy*dy)/(TAP_RADIUS+1);
+                if (r < 1 && cx >= 0 && cx < mSim.getNumX() && cy >= 0 && cy < mSim.getNumY()) {
+                    float h = TAP_HEIGHT*(1 - r*r);
+                    int i = mSim.index(cx, cy);
+                    mOld[i] += h;
+                    mHere[i] += h;
+                }
+            }
+        }
+        // The planes changed outside a step, so tiles at rest may not be any more.
+        mSim.beginSequence();
+    }
+
+    /**
+     * Whether there are ripples to show at now. Once the last has faded, the field is cleared.
+     */
+    public boolean isActive(long now) {
+        if (mActive && now >= mLastTap + mLifetimeMs) {
+            mActive = false;
+            clear(mOld);
+            clear(mHere);
+        }
+        return mActive;
+    }
+
+    /**
+     * Steps the field up to now, at most {@link #MAX_STEPS_PER_FRAME} steps. Returns the number
+     * of steps taken.
+     */
+    public int advance(long now) {
+        if (!isActive(now)) {
+            return 0;
+        }
+        long target = (now - mStartTime)*mSimRate/1000;
+        int steps = (int) Math.max(0, Math.min(target - mSteps, MAX_STEPS_PER_FRAME));
+        for (int i=0; i<steps; ++i) {
+            mSim.step(mOld, mHere, mNext, mDiff);
+            float[] old = mOld;
+            mOld = mHere;
+            mHere = mNext;
+            mNext = old;
+        }
+        mSteps += steps;
+        if (mSteps < target) {
+            // Too far behind: drop the time rather than catch up over later frames.
+            mStartTime += (target - mSteps)*1000/mSimRate;
+        }
+        return steps;
+    }
+
+    /**
+     * Steps the field up to now and returns frame*scale plus the tap ripples, faded, in a plane
+     * owned by this object that the next call overwrites. frame is laid out by sim, which must
+     * be the same size as the field. If there are no ripples, returns null.
+     */
+    public float[] apply(FlatGridSim sim, float[] frame, float scale, long now) {
+        advance(now);
+        if (!mActive) {
+            return null;
+        }
+        // Blend the last two steps so motion doesn't stutter between them. This lags a step
+        // behind, but a fresh tap is in both and shows at once.
+        float t = Math.min(1, (now - mStartTime)*mSimRate/1000f - mSteps);
+        float remaining = 1 - (float) (now - mLastTap)/mLifetimeMs;
+        float fade = remaining*(2 - remaining);
+        float a = (1 - t)*fade;
+        float b = t*fade;
+        int num_x = mSim.getNumX();
+        for (int y=0; y<mSim.getNumY(); ++y) {
+            int in = sim.index(0, y);
+            int out = mSim.index(0, y);
+            for (int x=0; x<num_x; ++x) {
+                mSum[out + x] = frame[in + x]*scale + a*mOld[out + x] + b*mHere[out + x];
+            }
+        }
+        return mSum;
+    }
+
+    private void clear(float[] plane) {
+        for (int i=0; i<plane.length; ++i) {
+            plane[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package thjread.ripple;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * Rasterizes a time string into a num_x by num_y bitmap, centred, and reads it back as the
+ * initial heights of a ripple. Each instance owns its bitmap and paints, so it may be used from
+ * any one thread.
+ *
+ * It can also rasterize each character once into a {@link GlyphAtlas}, which {@link AtlasText}
+ * composes strings from without drawing text.
+ */
+public class TextHeightfield implements TextRasterizer {
+    private final int num_x;
+    private final int num_y;
+    private final Bitmap mBitmap;
+    private final HeightfieldSource mSource;
+    private final HeightfieldReader mReader = new HeightfieldReader();
+    private final Canvas mCanvas;
+    private final Paint mBackgroundPaint;
+    private final Paint mTextPaint;
+    private final Rect mBounds = new Rect();
+    private final char[] mGlyph = new char[1];
+    private char[] mChars = new char[8];
+    private char[] mMeasured = new char[8];
+    private int mMeasuredLength = -1;
+    private float[] mWidths = new float[8];
+
+    public TextHeightfield(int num_x, int num_y, int textColor, int backgroundColor) {
+        this.num_x = num_x;
+        this.num_y = num_y;
+        mBitmap = Bitmap.createBitmap(num_x, num_y, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+        mSource = new BitmapHeightfieldSource(mBitmap);
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(backgroundColor);
+        mTextPaint = new Paint();
+        mTextPaint.setColor(textColor);
+        mTextPaint.setAntiAlias(true);
+    }
+
+    public void setStyle(Typeface typeface, float textSize, float letterSpacing) {
+        mTextPaint.setTypeface(typeface);
+        mTextPaint.setTextSize(textSize);
+        mTextPaint.setLetterSpacing(letterSpacing);
+        mMeasuredLength = -1;
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /**
+     * Rasterizes each of chars in the current style at the given number of sub-cell pen offsets.
+     */
+    public GlyphAtlas buildAtlas(String chars, int phases) {
+        GlyphAtlas atlas = new GlyphAtlas(phases);
+        Paint paint = new Paint(mTextPaint);
+        paint.setColor(Color.WHITE);
+        for (int i=0; i<chars.length(); ++i) {
+            mGlyph[0] = chars.charAt(i);
+            paint.getTextBounds(mGlyph, 0, 1, mBounds);
+            float advance = paint.measureText(mGlyph, 0, 1);
+            // A cell of margin all round for anti-aliasing, and one more on the right for the
+            // pen offset.
+            int originX = mBounds.left - 1;
+            int originY = mBounds.top - 1;
+            int width = mBounds.width() + 3;
+            int height = mBounds.height() + 2;
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            int[] pixels = new int[width*height];
+            float[][] coverage = new float[phases][width*height];
+            for (int p=0; p<phases; ++p) {
+                canvas.drawColor(Color.BLACK);
+                canvas.drawText(mGlyph, 0, 1, -originX + (float) p/phases, -originY, paint);
+                bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+                for (int j=0; j<pixels.length; ++j) {
+                    coverage[p][j] = (pixels[j] & 0xff)/255f;
+                }
+            }
+            bitmap.recycle();
+            atlas.put(mGlyph[0], new GlyphAtlas.Glyph(advance, mBounds.left, mBounds.top,
+                    mBounds.right, mBounds.bottom, originX, originY, width, height, coverage));
+        }
+        return atlas;
+    }
+
+    @Override
+    public void render(String text, FlatGridSim sim, float[] plane) {
+        if (mChars.length < text.length()) {
+            mChars = new char[text.length()];
+        }
+        text.getChars(0, text.length(), mChars, 0);
+        render(mChars, text.length(), sim, plane);
+    }
+
+    /**
+     * Draws the first length chars of text, as {@link #render(String, FlatGridSim, float[])}
+     * does, without allocating. The bounds of the last text drawn are kept, so redrawing the same
+     * text doesn't measure it again.
+     */
+    public void render(char[] text, int length, FlatGridSim sim, float[] plane) {
+        mCanvas.drawRect(0, 0, num_x, num_y, mBackgroundPaint);
+        if (!isMeasured(text, length)) {
+            mTextPaint.getTextBounds(text, 0, length, mBounds);
+            if (mMeasured.length < length) {
+                mMeasured = new char[length];
+            }
+            System.arraycopy(text, 0, mMeasured, 0, length);
+            mMeasuredLength = length;
+        }
+        mCanvas.drawText(text, 0, length, num_x / 2 - mBounds.width() / 2,
+                mBounds.height() / 2 + num_y / 2, mTextPaint);
+        readHeights(sim, plane);
+    }
+
+    private boolean isMeasured(char[] text, int length) {
+        if (length != mMeasuredLength) {
+            return false;
+        }
+        for (int i=0; i<length; ++i) {
+            if (text[i] != mMeasured[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public float layout(String text, float[] xs) {
+        if (mWidths.length < text.length()) {
+            mWidths = new float[text.length()];
+        }
+        mTextPaint.getTextBounds(text, 0, text.length(), mBounds);
+        mMeasuredLength = -1;
+        mTextPaint.getTextWidths(text, mWidths);
+        float x = num_x / 2 - mBounds.width() / 2;
+        for (int i=0; i<text.length(); ++i) {
+            xs[i] = x;
+            x += mWidths[i];
+        }
+        return mBounds.height() / 2 + num_y / 2;
+    }
+
+    @Override
+    public void rasterizeGlyph(char c, float x, float y, FlatGridSim sim, float[] plane) {
+        mCanvas.drawRect(0, 0, num_x, num_y, mBackgroundPaint);
+        mGlyph[0] = c;
+        mCanvas.drawText(mGlyph, 0, 1, x, y, mTextPaint);
+        readHeights(sim, plane);
+    }
+
+    private void readHeights(FlatGridSim sim, float[] plane) {
+        mReader.read(mSource, sim, plane);
+    }
+}
@@ -0,0 +1,18 @@
+package thjread.ripple;
+
+/**
+ * Draws time strings as initial heights, whole or a glyph at a time.
+ */
+public interface TextRasterizer extends GlyphResponseCache.GlyphRasterizer {
+    /**
+     * Draws text centred on the grid and writes the resulting heights into plane, which is laid
+     * out by sim.
+     */
+    void render(String text, FlatGridSim sim, float[] plane);
+
+    /**
+     * Writes the pen x position of each character of text, as render would draw it, into xs and
+     * returns the baseline y.
+     */
+    float layout(String text, float[] xs);
+}
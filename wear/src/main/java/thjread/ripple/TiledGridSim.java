@@ -0,0 +1,147 @@
+package thjread.ripple;
+
+/**
+ * {@link FlatGridSim} that divides the grid into square tiles and skips the ones at rest.
+ *
+ * A tile is still in a step if none of its cells changed. If a tile was still in the last two
+ * steps and its four neighbours were still in the last one, the update for each of its cells
+ * repeats the last one with identical operands, so the step would leave it unchanged again and it
+ * can be skipped. Results are therefore identical to the dense kernel, and the cost follows the
+ * area the wave has reached.
+ *
+ * Stillness is tracked across consecutive steps of one ripple: each step's old and here must be
+ * the previous step's here and out, with the same time step. Any other call recomputes every
+ * tile, as does the first step after {@link #beginSequence()}. Use one instance per sequence
+ * from one thread at a time.
+ */
+public class TiledGridSim extends FlatGridSim {
+    public static final int DEFAULT_TILE_SIZE = 8;
+
+    private final int mTileSize;
+    private int mTilesX;
+    private int mTilesY;
+    private byte[] mStill;
+    private byte[] mNextStill;
+    private float[] mLastHere;
+    private float[] mLastOut;
+    private float mLastDiff;
+    private int mActiveTiles;
+
+    public TiledGridSim(int num_x, int num_y) {
+        this(num_x, num_y, DEFAULT_TILE_SIZE);
+    }
+
+    public TiledGridSim(int num_x, int num_y, int tileSize) {
+        super(num_x, num_y);
+        mTileSize = tileSize;
+        initTiles();
+    }
+
+    @Override
+    public void initGrid(int num_x, int num_y) {
+        super.initGrid(num_x, num_y);
+        if (mTileSize > 0) {
+            initTiles();
+        }
+    }
+
+    private void initTiles() {
+        mTilesX = (getNumX() + mTileSize - 1)/mTileSize;
+        mTilesY = (getNumY() + mTileSize - 1)/mTileSize;
+        mStill = new byte[mTilesX*mTilesY];
+        mNextStill = new byte[mTilesX*mTilesY];
+        beginSequence();
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    /**
+     * Number of tiles computed in the last step, out of {@link #getTileCount()}.
+     */
+    public int getActiveTiles() {
+        return mActiveTiles;
+    }
+
+    public int getTileCount() {
+        return mTilesX*mTilesY;
+    }
+
+    @Override
+    public void beginSequence() {
+        mLastHere = null;
+        mLastOut = null;
+    }
+
+    @Override
+    public void step(float[] old, float[] here, float[] out, float diff) {
+        boolean continuing = old == mLastHere && here == mLastOut && diff == mLastDiff
+                && here != out;
+        if (!continuing) {
+            for (int t=0; t<mStill.length; ++t) {
+                mStill[t] = 0;
+            }
+        }
+        fillHalo(here);
+
+        int num_x = getNumX();
+        int num_y = getNumY();
+        int s = getStride();
+        int active = 0;
+        for (int ty=0; ty<mTilesY; ++ty) {
+            int y0 = ty*mTileSize;
+            int y1 = Math.min(y0 + mTileSize, num_y);
+            for (int tx=0; tx<mTilesX; ++tx) {
+                int t = ty*mTilesX + tx;
+                int x0 = tx*mTileSize;
+                int x1 = Math.min(x0 + mTileSize, num_x);
+                if (canSkip(tx, ty)) {
+                    // here equals old on this tile, so out only needs filling if it is a
+                    // different array.
+                    if (out != old) {
+                        for (int y=y0; y<y1; ++y) {
+                            int start = (y+1)*s + x0 + 1;
+                            System.arraycopy(here, start, out, start, x1 - x0);
+                        }
+                    }
+                    mNextStill[t] = 2;
+                    continue;
+                }
+
+                active++;
+                boolean still = true;
+                for (int y=y0; y<y1; ++y) {
+                    int start = (y+1)*s + x0 + 1;
+                    int end = start + x1 - x0;
+                    for (int i=start; i<end; ++i) {
+                        float h = here[i];
+                        float lagrangian = (here[i+1]-h)-(h-here[i-1])
+                                + (here[i+s]-h)-(h-here[i-s]);
+                        float next = 0.35f*lagrangian*diff + 2*h - old[i];
+                        out[i] = next;
+                        still &= next == h;
+                    }
+                }
+                mNextStill[t] = still ? (byte) Math.min(mStill[t] + 1, 2) : 0;
+            }
+        }
+
+        byte[] swap = mStill;
+        mStill = mNextStill;
+        mNextStill = swap;
+        mActiveTiles = active;
+        mLastHere = here;
+        mLastOut = out;
+        mLastDiff = diff;
+    }
+
+    private boolean canSkip(int tx, int ty) {
+        int t = ty*mTilesX + tx;
+        return mStill[t] >= 2
+                && (tx == 0 || mStill[t-1] >= 1)
+                && (tx == mTilesX-1 || mStill[t+1] >= 1)
+                && (ty == 0 || mStill[t-mTilesX] >= 1)
+                && (ty == mTilesY-1 || mStill[t+mTilesX] >= 1);
+    }
+}
@@ -0,0 +1,102 @@
+package thjread.ripple;
+
+import java.util.TimeZone;
+
+/**
+ * The local time as h:mm:ss or h:mm, formatted into a reusable buffer so the draw path never
+ * creates a Date, Calendar or String for it.
+ */
+public class TimeText implements CharSequence {
+    private static final int SECONDS_PER_DAY = 24*60*60;
+
+    private final boolean mSeconds;
+    private final char[] mChars = new char[8];
+    private int mLength;
+    private int mSecondOfDay = -1;
+    private TimeZone mZone = TimeZone.getDefault();
+
+    /**
+     * @param seconds whether to show seconds
+     */
+    public TimeText(boolean seconds) {
+        mSeconds = seconds;
+    }
+
+    public void setTimeZone(TimeZone zone) {
+        mZone = zone;
+    }
+
+    /**
+     * Formats the local time at millis, in ms since the epoch.
+     */
+    public void setTime(long millis) {
+        long local = millis + mZone.getOffset(millis);
+        long seconds = local/1000;
+        if (local % 1000 < 0) {
+            seconds--;
+        }
+        int secondOfDay = (int) (seconds % SECONDS_PER_DAY);
+        setSecondOfDay(secondOfDay < 0 ? secondOfDay + SECONDS_PER_DAY : secondOfDay);
+    }
+
+    /**
+     * Seconds since local midnight of the time last set, or -1 if none has been.
+     */
+    public int getSecondOfDay() {
+        return mSecondOfDay;
+    }
+
+    public void setSecondOfDay(int secondOfDay) {
+        mSecondOfDay = secondOfDay;
+        int hour = secondOfDay/3600 % 12;
+        int minute = secondOfDay/60 % 60;
+        int second = secondOfDay % 60;
+        if (hour == 0) {
+            hour = 12;
+        }
+        int i = 0;
+        if (hour >= 10) {
+            mChars[i++] = '1';
+        }
+        mChars[i++] = (char) ('0' + hour % 10);
+        mChars[i++] = ':';
+        mChars[i++] = (char) ('0' + minute/10);
+        mChars[i++] = (char) ('0' + minute % 10);
+        if (mSeconds) {
+            mChars[i++] = ':';
+            mChars[i++] = (char) ('0' + second/10);
+            mChars[i++] = (char) ('0' + second % 10);
+        }
+        mLength = i;
+    }
+
+    /**
+     * The formatted text, in the first {@link #length()} chars. Overwritten by the next set.
+     */
+    public char[] getChars() {
+        return mChars;
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= mLength) {
+            throw new IndexOutOfBoundsException("index " + index + " >= " + mLength);
+        }
+        return mChars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+}
@@ -0,0 +1,175 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Composes strings from an atlas of box glyphs, whose anti-aliased coverage is known exactly.
+ */
+public class AtlasTextTest {
+    private static final int NUM_X = 40;
+    private static final int NUM_Y = 20;
+    private static final int PHASES = 4;
+    private static final int TEXT = 0xffffffff;
+    private static final int BACKGROUND = 0xff000000;
+
+    /**
+     * Each glyph is a box boxWidth cells wide and six high standing on the baseline, with its
+     * left edge at the pen.
+     */
+    private static GlyphAtlas boxAtlas(float digitAdvance, float colonAdvance) {
+        GlyphAtlas atlas = new GlyphAtlas(PHASES);
+        for (char c : GlyphAtlas.TIME_CHARS.toCharArray()) {
+            int boxWidth = c == ':' ? 1 : 3;
+            int width = boxWidth + 3;
+            int height = 8;
+            float[][] coverage = new float[PHASES][width*height];
+            for (int p=0; p<PHASES; ++p) {
+                float pen = 1 + (float) p/PHASES;
+                for (int y=1; y<7; ++y) {
+                    for (int x=0; x<width; ++x) {
+                        coverage[p][y*width + x] = overlap(pen, pen + boxWidth, x, x + 1);
+                    }
+                }
+            }
+            atlas.put(c, new GlyphAtlas.Glyph(c == ':' ? colonAdvance : digitAdvance, 0, -6,
+                    boxWidth, 0, -1, -7, width, height, coverage));
+        }
+        return atlas;
+    }
+
+    private static float overlap(float a0, float a1, float b0, float b1) {
+        return Math.max(0, Math.min(a1, b1) - Math.max(a0, b0));
+    }
+
+    private static float height(FlatGridSim sim, float[] plane, int x, int y) {
+        return plane[sim.index(x, y)];
+    }
+
+    @Test
+    public void composesAntiAliasedBoxes() throws Exception {
+        AtlasText text = new AtlasText(boxAtlas(4.25f, 2.5f), NUM_X, NUM_Y, TEXT, BACKGROUND);
+        FlatGridSim sim = new FlatGridSim(NUM_X, NUM_Y);
+        float[] plane = sim.newPlane();
+        text.render("12:34", sim, plane);
+
+        float[] xs = new float[5];
+        float baseline = text.layout("12:34", xs);
+        // Ink is 4.25*3 + 2.5 + 3 = 18.25 wide, rounded out to 19, and 6 high.
+        assertEquals(NUM_X/2 - 19/2, xs[0], 0f);
+        assertEquals(xs[0] + 4.25f, xs[1], 0f);
+        assertEquals(xs[0] + 8.5f, xs[2], 0f);
+        assertEquals(6/2 + NUM_Y/2, baseline, 0f);
+
+        for (int y=0; y<NUM_Y; ++y) {
+            for (int x=0; x<NUM_X; ++x) {
+                float expected = 0;
+                if (y >= baseline - 6 && y < baseline) {
+                    for (int i=0; i<5; ++i) {
+                        float pen = Math.round(xs[i]*PHASES)/(float) PHASES;
+                        float a = overlap(pen, pen + (i == 2 ? 1 : 3), x, x + 1);
+                        expected = a + expected*(1 - a);
+                    }
+                }
+                assertEquals("cell " + x + "," + y, 10*expected, height(sim, plane, x, y), 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    public void overlappingGlyphsCompositeOver() throws Exception {
+        // Digits advance by less than their width, so neighbours overlap by a cell.
+        AtlasText text = new AtlasText(boxAtlas(2, 2), NUM_X, NUM_Y, TEXT, BACKGROUND);
+        FlatGridSim sim = new FlatGridSim(NUM_X, NUM_Y);
+        float[] plane = sim.newPlane();
+        text.render("11", sim, plane);
+        float[] xs = new float[2];
+        int baseline = (int) text.layout("11", xs);
+        int overlap = (int) xs[1];
+        assertEquals(10, height(sim, plane, overlap, baseline - 1), 1e-5f);
+        assertEquals(0, height(sim, plane, overlap, baseline), 1e-5f);
+    }
+
+    @Test
+    public void heightsBlendBetweenColours() throws Exception {
+        AtlasText text = new AtlasText(boxAtlas(4, 2), NUM_X, NUM_Y, 0xff102030, 0xff0000cc);
+        FlatGridSim sim = new FlatGridSim(NUM_X, NUM_Y);
+        float[] plane = sim.newPlane();
+        text.render("8", sim, plane);
+        assertEquals(FlatGridSim.pixelHeight(0xcc), height(sim, plane, 0, 0), 1e-5f);
+        float[] xs = new float[1];
+        int baseline = (int) text.layout("8", xs);
+        assertEquals(FlatGridSim.pixelHeight(0x30), height(sim, plane, (int) xs[0] + 1,
+                baseline - 1), 1e-5f);
+    }
+
+    @Test
+    public void layoutIsCachedPerShapeForTabularDigits() throws Exception {
+        AtlasText text = new AtlasText(boxAtlas(4.25f, 2.5f), NUM_X, NUM_Y, TEXT, BACKGROUND);
+        float[] first = new float[7];
+        float[] again = new float[7];
+        text.layout("1:23:45", first);
+        text.layout("9:59:07", again);
+        assertArrayEquals(first, again, 0f);
+        assertEquals(1, text.getLayoutMisses());
+        text.layout("10:00:00", new float[8]);
+        text.layout("12:34:56", new float[8]);
+        assertEquals(2, text.getLayoutMisses());
+    }
+
+    @Test
+    public void cachedLayoutsFollowEachStringsInk() throws Exception {
+        // Tabular digits whose ink differs: 1 is inset two cells and as short as the colon, 7
+        // juts out a cell to the left and 4 drops below the baseline.
+        GlyphAtlas atlas = new GlyphAtlas(PHASES);
+        for (char c : GlyphAtlas.TIME_CHARS.toCharArray()) {
+            int left = c == '1' ? 2 : c == '7' ? -1 : 0;
+            int top = c == '1' || c == ':' ? -4 : -6;
+            int bottom = c == '4' ? 2 : 0;
+            atlas.put(c, new GlyphAtlas.Glyph(c == ':' ? 2.5f : 4.25f, left, top, 3, bottom, 0,
+                    0, 1, 1, new float[PHASES][1]));
+        }
+        AtlasText cached = new AtlasText(atlas, NUM_X, NUM_Y, TEXT, BACKGROUND);
+        String[] times = {"11:11", "10:00", "70:00", "11:14", "12:34", "11:11"};
+        for (String time : times) {
+            float[] xs = new float[5];
+            float[] expected = new float[5];
+            float baseline = cached.layout(time, xs);
+            AtlasText fresh = new AtlasText(atlas, NUM_X, NUM_Y, TEXT, BACKGROUND);
+            assertEquals(time, fresh.layout(time, expected), baseline, 0f);
+            assertArrayEquals(time, expected, xs, 0f);
+        }
+        assertEquals(1, cached.getLayoutMisses());
+
+        // 11:11 has ink from 2 to 4.25*3 + 2.5 + 3 = 18.25, 17 cells once rounded out, and 4 high.
+        float[] xs = new float[5];
+        assertEquals(4/2 + NUM_Y/2, cached.layout("11:11", xs), 0f);
+        assertEquals(NUM_X/2 - 17/2, xs[0], 0f);
+    }
+
+    @Test
+    public void glyphsComposeLikeWholeStrings() throws Exception {
+        // With no overlaps, summing single glyphs as the response cache does matches rendering
+        // the whole string.
+        AtlasText text = new AtlasText(boxAtlas(4.25f, 2.5f), NUM_X, NUM_Y, TEXT, BACKGROUND);
+        FlatGridSim sim = new FlatGridSim(NUM_X, NUM_Y);
+        float[] whole = sim.newPlane();
+        float[] glyph = sim.newPlane();
+        float[] sum = sim.newPlane();
+        text.render("3:14", sim, whole);
+        float[] xs = new float[4];
+        float baseline = text.layout("3:14", xs);
+        for (int i=0; i<4; ++i) {
+            text.rasterizeGlyph("3:14".charAt(i), xs[i], baseline, sim, glyph);
+            for (int j=0; j<sum.length; ++j) {
+                sum[j] += glyph[j];
+            }
+        }
+        for (int y=0; y<NUM_Y; ++y) {
+            for (int x=0; x<NUM_X; ++x) {
+                assertEquals(height(sim, whole, x, y), height(sim, sum, x, y), 1e-5f);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package thjread.ripple;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fails if the platform-independent work onDraw does for steady-state frames allocates: time
+ * formatting, composing time text from glyphs, matching a ready ripple to its text, reading
+ * and interpolating frames, batching grid lines and recording timings.
+ * Allocations on the watch mean GC pauses, which show as stutter.
+ */
+public class DrawPathAllocationTest {
+    private static final int NUM_X = 40;
+    private static final int NUM_Y = 20;
+    private static final int LENGTH = 4000/2/30 + 1;
+
+    private com.sun.management.ThreadMXBean mThreads;
+
+    @Before
+    public void setUp() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        mThreads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(mThreads.isThreadAllocatedMemorySupported());
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private long allocated() {
+        return mThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Bytes allocated by running frames of the draw path, less the cost of measuring.
+     */
+    private long allocatedBy(DrawLoop loop, int frames) {
+        long overhead = -allocated() + allocated();
+        long before = allocated();
+        loop.frames(frames);
+        return allocated() - before - overhead;
+    }
+
+    private static class DrawLoop {
+        final FrameSequence mSequence;
+        final TimeText mTime = new TimeText(true);
+        final TimeText mAmbientTime = new TimeText(false);
+        final String mReadyText;
+        final GridGeometry mGeometry = new GridGeometry();
+        final GridLineBatch mBatch = new GridLineBatch(2);
+        final FrameStats mStats = new FrameStats();
+        final FrameInterpolator mInterpolator = new FrameInterpolator();
+        final AtlasText mText = new AtlasText(atlas(), NUM_X, NUM_Y, 0xffffffff, 0xff000000);
+        final float[] mAmbientPlane;
+        final QualityGovernor mGovernor = new QualityGovernor(new QualityGovernor.Level[] {
+                new QualityGovernor.Level(NUM_X, NUM_Y, 30, 50)}, 0, 0.25f);
+        long mNow = 1500000000000L;
+        int mMatched;
+
+        DrawLoop(FrameSequence sequence) {
+            mSequence = sequence;
+            FlatGridSim sim = sequence.getSim();
+            float[] initial = sequence.getInitial();
+            for (int y=NUM_Y/3; y<2*NUM_Y/3; ++y) {
+                for (int x=4; x<NUM_X-4; x += 2) {
+                    initial[sim.index(x, y)] = 10;
+                }
+            }
+            mTime.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+            mTime.setTime(mNow);
+            mReadyText = mTime.toString();
+            sequence.start(mReadyText, 1f/30);
+            sequence.precompute();
+            mBatch.ensureCapacity(NUM_X, NUM_Y);
+            mAmbientPlane = sim.newPlane();
+        }
+
+        static GlyphAtlas atlas() {
+            GlyphAtlas atlas = new GlyphAtlas(4);
+            for (char c : GlyphAtlas.TIME_CHARS.toCharArray()) {
+                float[][] coverage = new float[4][5*8];
+                for (float[] phase : coverage) {
+                    java.util.Arrays.fill(phase, 0.5f);
+                }
+                atlas.put(c, new GlyphAtlas.Glyph(4, 0, -6, 3, 0, -1, -7, 5, 8, coverage));
+            }
+            return atlas;
+        }
+
+        void frames(int count) {
+            for (int i=0; i<count; ++i) {
+                mNow += 50;
+                int frame = (int) (mNow % 4000);
+                if (frame < 50) {
+                    // Ripple boundary.
+                    mTime.setTime(mNow);
+                    if (mReadyText.contentEquals(mTime)) {
+                        mMatched++;
+                    }
+                    mAmbientTime.setTime(mNow);
+                    mText.render(mAmbientTime.getChars(), mAmbientTime.length(),
+                            mSequence.getSim(), mAmbientPlane);
+                    mGovernor.onBoundary();
+                    mStats.count(FrameStats.COUNT_LATE);
+                }
+                float position = frame <= 2000 ? (2000 - frame)*30f/1000 : (frame - 2000)*30f/1000;
+                long start = mStats.begin();
+                long steps = mSequence.getSteps();
+                float[] plane = mInterpolator.getFrame(mSequence, position);
+                mStats.end(FrameStats.PHASE_GET_FRAME, start);
+                mStats.recordSteps(mSequence.getSteps() - steps);
+                mGeometry.layout(0, 320, 320, NUM_X, NUM_Y);
+                mBatch.build(mGeometry, mSequence.getSim(), plane, 1f);
+                mGovernor.addFrame(1000000);
+                mStats.record(FrameStats.PHASE_FRAME, 1000000);
+            }
+        }
+    }
+
+    private void assertNoAllocation(FrameSequence sequence) {
+        DrawLoop loop = new DrawLoop(sequence);
+        loop.frames(20000);
+        long bytes = allocatedBy(loop, 2000);
+        assertEquals("bytes allocated", 0, bytes);
+    }
+
+    @Test
+    public void storedFramesDrawWithoutAllocating() throws Exception {
+        assertNoAllocation(new RippleSequence(NUM_X, NUM_Y, LENGTH));
+    }
+
+    @Test
+    public void streamedFramesDrawWithoutAllocating() throws Exception {
+        assertNoAllocation(new StreamingSequence(NUM_X, NUM_Y, LENGTH));
+    }
+
+    @Test
+    public void quantizedFramesDrawWithoutAllocating() throws Exception {
+        assertNoAllocation(new QuantizedSequence(new FlatGridSim(NUM_X, NUM_Y), LENGTH, 16, 8));
+    }
+
+    @Test
+    public void spectralFramesDrawWithoutAllocating() throws Exception {
+        assertNoAllocation(new SpectralSequence(NUM_X, NUM_Y, LENGTH));
+    }
+
+    @Test
+    public void timeTextMatchesDateFormat() throws Exception {
+        java.text.SimpleDateFormat format = new java.text.SimpleDateFormat("h:mm:ss");
+        java.text.SimpleDateFormat ambient = new java.text.SimpleDateFormat("h:mm");
+        TimeZone zone = TimeZone.getTimeZone("Australia/Adelaide");
+        format.setTimeZone(zone);
+        ambient.setTimeZone(zone);
+        TimeText text = new TimeText(true);
+        TimeText ambientText = new TimeText(false);
+        text.setTimeZone(zone);
+        ambientText.setTimeZone(zone);
+        for (long t=-86400000L; t<3*86400000L; t += 997*61) {
+            text.setTime(t);
+            ambientText.setTime(t);
+            java.util.Date date = new java.util.Date(t);
+            assertEquals(format.format(date), text.toString());
+            assertEquals(ambient.format(date), ambientText.toString());
+        }
+    }
+}
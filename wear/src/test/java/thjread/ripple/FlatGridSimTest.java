@@ -0,0 +1,89 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the flat kernel against the original per-cell boundary-tested update.
+ */
+public class FlatGridSimTest {
+    private static void referenceStep(float[][][] array, int index, float diff) {
+        int num_y = array[0].length;
+        int num_x = array[0][0].length;
+        for (int y=0; y<num_y; ++y) {
+            for (int x=0; x<num_x; ++x) {
+                float here = array[index-1][y][x];
+                float old = array[index-2][y][x];
+
+                float left = x == 0 ? here : array[index-1][y][x-1];
+                float right = x == num_x-1 ? here : array[index-1][y][x+1];
+                float up = y == 0 ? here : array[index-1][y-1][x];
+                float down = y == num_y-1 ? here : array[index-1][y+1][x];
+                float lagrangian = (right-here)-(here-left) + (down-here)-(here-up);
+
+                array[index][y][x] = 0.35f*lagrangian*diff + 2*here - old;
+            }
+        }
+    }
+
+    private static float[][][] randomRecord(int frames, int num_x, int num_y, long seed) {
+        Random random = new Random(seed);
+        float[][][] record = new float[frames][num_y][num_x];
+        for (int y=0; y<num_y; ++y) {
+            for (int x=0; x<num_x; ++x) {
+                record[0][y][x] = record[1][y][x] = random.nextFloat()*10;
+            }
+        }
+        return record;
+    }
+
+    @Test
+    public void flatStepMatchesReference() throws Exception {
+        int num_x = 40, num_y = 20, frames = 67;
+        float[][][] expected = randomRecord(frames, num_x, num_y, 1);
+        for (int i=2; i<frames; ++i) {
+            referenceStep(expected, i, 1f/30);
+        }
+
+        FlatGridSim sim = new FlatGridSim(num_x, num_y);
+        float[] old = sim.newPlane();
+        float[] here = sim.newPlane();
+        sim.copyFromGrid(expected[0], old);
+        sim.copyFromGrid(expected[1], here);
+        float[][] actual = new float[num_y][num_x];
+        for (int i=2; i<frames; ++i) {
+            sim.step(old, here, old, 1f/30);
+            float[] t = old;
+            old = here;
+            here = t;
+            sim.copyToGrid(here, actual);
+            for (int y=0; y<num_y; ++y) {
+                assertArrayEquals(expected[i][y], actual[y], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void gridSimAdapterMatchesReference() throws Exception {
+        int num_x = 13, num_y = 7, frames = 30;
+        float[][][] expected = randomRecord(frames, num_x, num_y, 2);
+        float[][][] actual = randomRecord(frames, num_x, num_y, 2);
+        GridSim sim = new GridSim();
+        sim.initGrid(num_x, num_y);
+        for (int i=2; i<frames; ++i) {
+            referenceStep(expected, i, 3f/30);
+            sim.simulateGrid(actual, i, 3f/30);
+        }
+        // Re-simulating an earlier index must not reuse the cached planes.
+        referenceStep(expected, 5, 1f/30);
+        sim.simulateGrid(actual, 5, 1f/30);
+        for (int i=0; i<frames; ++i) {
+            for (int y=0; y<num_y; ++y) {
+                assertArrayEquals(expected[i][y], actual[i][y], 0f);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks blending between frames for sequences that keep every frame and ones that reuse planes.
+ */
+public class FrameInterpolatorTest {
+    private static final int NUM_X = 12;
+    private static final int NUM_Y = 8;
+    private static final int LENGTH = 20;
+
+    private static FrameSequence started(FrameSequence sequence) {
+        FlatGridSim sim = sequence.getSim();
+        sequence.getInitial()[sim.index(5, 4)] = 10;
+        sequence.getInitial()[sim.index(6, 4)] = 10;
+        sequence.start(null, 1f/15);
+        return sequence;
+    }
+
+    private static float[] copy(float[] plane) {
+        return plane.clone();
+    }
+
+    private static void checkBlends(FrameSequence sequence, FrameSequence reference) {
+        FlatGridSim sim = sequence.getSim();
+        FrameInterpolator interpolator = new FrameInterpolator();
+        float[] positions = {0, 3.25f, 3.5f, 7f, 10.75f, 2.5f, 18.5f, 19f, 25f};
+        for (float position : positions) {
+            int index = Math.min((int) position, LENGTH-1);
+            float t = position - index;
+            float[] a = copy(reference.getFrame(index));
+            float[] b = copy(reference.getFrame(Math.min(index+1, LENGTH-1)));
+            float[] blended = interpolator.getFrame(sequence, position);
+            for (int y=0; y<NUM_Y; ++y) {
+                for (int x=0; x<NUM_X; ++x) {
+                    int i = sim.index(x, y);
+                    float expected = index == LENGTH-1 ? a[i] : a[i] + t*(b[i] - a[i]);
+                    assertEquals("position " + position + " (" + x + ", " + y + ")",
+                            expected, blended[i], 1e-5f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void storedFramesBlend() throws Exception {
+        checkBlends(started(new RippleSequence(NUM_X, NUM_Y, LENGTH)),
+                started(new RippleSequence(NUM_X, NUM_Y, LENGTH)));
+    }
+
+    @Test
+    public void streamedFramesBlend() throws Exception {
+        checkBlends(started(new StreamingSequence(NUM_X, NUM_Y, LENGTH)),
+                started(new RippleSequence(NUM_X, NUM_Y, LENGTH)));
+    }
+
+    @Test
+    public void wholePositionsReturnTheFrame() throws Exception {
+        FrameSequence sequence = started(new RippleSequence(NUM_X, NUM_Y, LENGTH));
+        FrameInterpolator interpolator = new FrameInterpolator();
+        assertSame(sequence.getFrame(4), interpolator.getFrame(sequence, 4f));
+        assertSame(sequence.getFrame(LENGTH-1), interpolator.getFrame(sequence, LENGTH-0.5f));
+    }
+}
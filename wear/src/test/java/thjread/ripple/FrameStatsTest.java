@@ -0,0 +1,56 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class FrameStatsTest {
+    @Test
+    public void quantilesAreBucketUpperBounds() throws Exception {
+        FrameStats stats = new FrameStats();
+        for (int i=0; i<90; ++i) {
+            stats.record(FrameStats.PHASE_DRAW_GRID, 1000);
+        }
+        for (int i=0; i<10; ++i) {
+            stats.record(FrameStats.PHASE_DRAW_GRID, 100000);
+        }
+        assertEquals(100, stats.getSamples(FrameStats.PHASE_DRAW_GRID));
+        assertEquals(1023, stats.getQuantile(FrameStats.PHASE_DRAW_GRID, 0.5));
+        assertEquals(1023, stats.getQuantile(FrameStats.PHASE_DRAW_GRID, 0.9));
+        assertEquals(131071, stats.getQuantile(FrameStats.PHASE_DRAW_GRID, 0.99));
+        assertEquals(0, stats.getSamples(FrameStats.PHASE_TEXT));
+    }
+
+    @Test
+    public void disabledStatsRecordNothing() throws Exception {
+        FrameStats stats = new FrameStats();
+        stats.setEnabled(false);
+        stats.end(FrameStats.PHASE_FRAME, stats.begin());
+        stats.record(FrameStats.PHASE_FRAME, 5);
+        stats.count(FrameStats.COUNT_LATE);
+        assertEquals(0, stats.getSamples(FrameStats.PHASE_FRAME));
+        assertEquals(0, stats.getCount(FrameStats.COUNT_LATE));
+    }
+
+    @Test
+    public void dumpListsPhasesAndCounts() throws Exception {
+        FrameStats stats = new FrameStats();
+        stats.record(FrameStats.PHASE_PRODUCE, 2000000);
+        stats.recordSteps(3);
+        stats.count(FrameStats.COUNT_AMBIENT_EXIT);
+        stats.count(FrameStats.COUNT_AMBIENT_EXIT);
+        StringWriter out = new StringWriter();
+        stats.dump("  ", new PrintWriter(out));
+        String dump = out.toString();
+        assertTrue(dump, dump.contains("  produce: n=1 mean=2000 "));
+        assertTrue(dump, dump.contains("catchUpSteps: p50<=3 "));
+        assertTrue(dump, dump.contains("ambientExit=2"));
+
+        stats.reset();
+        assertEquals(0, stats.getCount(FrameStats.COUNT_AMBIENT_EXIT));
+        assertEquals(0, stats.getSamples(FrameStats.PHASE_PRODUCE));
+    }
+}
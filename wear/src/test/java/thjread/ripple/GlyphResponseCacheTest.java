@@ -0,0 +1,127 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GlyphResponseCacheTest {
+    /**
+     * Draws each character as a solid 3x5 block whose height depends on the character.
+     */
+    private static class BlockRasterizer implements GlyphResponseCache.GlyphRasterizer {
+        @Override
+        public void rasterizeGlyph(char c, float x, float y, FlatGridSim sim, float[] plane) {
+            for (int i=0; i<plane.length; ++i) {
+                plane[i] = 0;
+            }
+            draw(c, x, y, sim, plane);
+        }
+
+        static void draw(char c, float x, float y, FlatGridSim sim, float[] plane) {
+            for (int gy=(int) y-5; gy<(int) y; ++gy) {
+                for (int gx=(int) x; gx<(int) x+3; ++gx) {
+                    if (gx >= 0 && gx < sim.getNumX() && gy >= 0 && gy < sim.getNumY()) {
+                        plane[sim.index(gx, gy)] += 1 + (c % 10)*0.9f;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final int NUM_X = 40;
+    private static final int NUM_Y = 20;
+    private static final int LENGTH = 67;
+
+    private static float[] layout(String text) {
+        float[] xs = new float[text.length()];
+        for (int i=0; i<text.length(); ++i) {
+            xs[i] = 6 + 4*i;
+        }
+        return xs;
+    }
+
+    private static RippleSequence simulate(String text) {
+        RippleSequence expected = new RippleSequence(NUM_X, NUM_Y, LENGTH);
+        float[] xs = layout(text);
+        for (int i=0; i<text.length(); ++i) {
+            BlockRasterizer.draw(text.charAt(i), xs[i], 13, expected.getSim(), expected.getInitial());
+        }
+        expected.start(text, 1f/30);
+        expected.precompute();
+        return expected;
+    }
+
+    private static void assertSameRipple(RippleSequence expected, RippleSequence actual) {
+        FlatGridSim sim = expected.getSim();
+        for (int i=0; i<LENGTH; ++i) {
+            for (int y=0; y<NUM_Y; ++y) {
+                for (int x=0; x<NUM_X; ++x) {
+                    assertEquals("frame " + i, expected.getFrame(i)[sim.index(x, y)],
+                            actual.getFrame(i)[sim.index(x, y)], 1e-3f);
+                }
+            }
+        }
+        assertEquals(LENGTH, actual.getSimulated());
+        assertEquals(expected.getText(), actual.getText());
+    }
+
+    @Test
+    public void superpositionMatchesSimulation() throws Exception {
+        GlyphResponseCache cache = new GlyphResponseCache(NUM_X, NUM_Y, LENGTH, 1f/30,
+                64L*1024*1024, new BlockRasterizer());
+        RippleSequence actual = new RippleSequence(NUM_X, NUM_Y, LENGTH);
+        String[] times = {"3:59:52", "3:59:56", "4:00:00", "4:00:04", "3:59:56"};
+        int misses = 0;
+        for (String text : times) {
+            misses = cache.getMisses();
+            cache.fill(actual, text, layout(text), 13);
+            assertSameRipple(simulate(text), actual);
+        }
+        // The last string only needed responses that were already cached.
+        assertEquals(misses, cache.getMisses());
+        assertEquals(14, cache.getCachedGlyphs());
+    }
+
+    @Test
+    public void evictionKeepsResultsCorrect() throws Exception {
+        long entryBytes = GlyphResponseCache.entryBytes(NUM_X, NUM_Y, LENGTH);
+        GlyphResponseCache cache = new GlyphResponseCache(NUM_X, NUM_Y, LENGTH, 1f/30,
+                3*entryBytes, new BlockRasterizer());
+        RippleSequence actual = new RippleSequence(NUM_X, NUM_Y, LENGTH);
+        String[] times = {"12:34:56", "12:34:59", "1:00:00", "12:34:56"};
+        for (String text : times) {
+            cache.fill(actual, text, layout(text), 13);
+            assertSameRipple(simulate(text), actual);
+            assertTrue(cache.getCachedGlyphs() <= 3);
+        }
+    }
+
+    /**
+     * Fills a ripple every four seconds from start for a minute, returning the glyphs simulated.
+     */
+    private static int fillMinute(GlyphResponseCache cache, int start) {
+        RippleSequence out = new RippleSequence(NUM_X, NUM_Y, LENGTH);
+        int misses = cache.getMisses();
+        for (int second=start; second<start+60; second += 4) {
+            String text = String.format("12:%02d:%02d", second/60, second%60);
+            cache.fill(out, text, layout(text), 13);
+        }
+        return cache.getMisses() - misses;
+    }
+
+    @Test
+    public void seventeenGlyphsHoldAMinute() throws Exception {
+        long entryBytes = GlyphResponseCache.entryBytes(NUM_X, NUM_Y, LENGTH);
+        GlyphResponseCache cache = new GlyphResponseCache(NUM_X, NUM_Y, LENGTH, 1f/30,
+                17*entryBytes, new BlockRasterizer());
+        fillMinute(cache, 34*60);
+        // Only the new minute digit is simulated.
+        assertEquals(1, fillMinute(cache, 35*60));
+
+        // Holding just the string and the digits replacing its own, every changed digit misses.
+        GlyphResponseCache small = new GlyphResponseCache(NUM_X, NUM_Y, LENGTH, 1f/30,
+                10*entryBytes, new BlockRasterizer());
+        fillMinute(small, 34*60);
+        assertTrue(fillMinute(small, 35*60) >= 15);
+    }
+}
@@ -0,0 +1,77 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GridLineBatchTest {
+    private static String key(float[] p, int i, int color) {
+        return p[i] + "," + p[i+1] + "," + p[i+2] + "," + p[i+3] + "#" + Integer.toHexString(color);
+    }
+
+    private static void count(Map<String, Integer> lines, String key) {
+        Integer n = lines.get(key);
+        lines.put(key, n == null ? 1 : n+1);
+    }
+
+    @Test
+    public void batchHoldsSameLinesAsDrawGrid() throws Exception {
+        checkBatch(0);
+        checkBatch(2);
+    }
+
+    private static void checkBatch(int shift) {
+        int num_x = 17, num_y = 9;
+        Random random = new Random(3);
+        float[][] grid = new float[num_y][num_x];
+        for (int y=0; y<num_y; ++y) {
+            for (int x=0; x<num_x; ++x) {
+                grid[y][x] = (random.nextFloat()-0.5f)*30;
+            }
+        }
+        float scale = 0.7f;
+        GridGeometry g = new GridGeometry();
+        g.layout(0, 320, 320, num_x, num_y);
+
+        // Lines in the order drawGrid used to draw them, with quantized colours.
+        Map<String, Integer> expected = new HashMap<>();
+        float[] p = new float[4];
+        for (int x=0; x<num_x-1; ++x) {
+            for (int y=0; y<num_y-1; ++y) {
+                p[0] = g.pointX(x); p[1] = g.pointY(y, grid[y][x]);
+                p[2] = g.pointX(x); p[3] = g.pointY(y+1, grid[y+1][x]);
+                count(expected, key(p, 0, quantized(grid[y][x], grid[y+1][x], scale, shift)));
+                p[2] = g.pointX(x+1); p[3] = g.pointY(y, grid[y][x+1]);
+                count(expected, key(p, 0, quantized(grid[y][x], grid[y][x+1], scale, shift)));
+            }
+        }
+
+        FlatGridSim sim = new FlatGridSim(num_x, num_y);
+        float[] plane = sim.newPlane();
+        sim.copyFromGrid(grid, plane);
+        GridLineBatch batch = new GridLineBatch(shift);
+        batch.build(g, sim, plane, scale);
+        assertEquals(2*(num_x-1)*(num_y-1), batch.getNumLines());
+        Map<String, Integer> actual = new HashMap<>();
+        int total = 0;
+        for (int b=0; b<batch.getBucketCount(); ++b) {
+            int offset = batch.getBucketOffset(b);
+            for (int i=offset; i<offset + batch.getBucketLength(b); i += 4) {
+                count(actual, key(batch.getPoints(), i, batch.getBucketColor(b)));
+            }
+            total += batch.getBucketLength(b);
+        }
+        assertEquals(4*batch.getNumLines(), total);
+        assertEquals(expected, actual);
+    }
+
+    private static int quantized(float a, float b, float scale, int shift) {
+        int level = GridGeometry.lineLevel(a, b, scale);
+        int magnitude = Math.min(Math.abs(level), GridLineBatch.MAX_LEVEL) >> shift << shift;
+        return GridGeometry.colorForLevel(level >= 0 ? magnitude : -magnitude);
+    }
+}
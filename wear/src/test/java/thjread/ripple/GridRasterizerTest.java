@@ -0,0 +1,164 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+public class GridRasterizerTest {
+    private static final int BACKGROUND = 0xff000010;
+    /**
+     * Palette shift the face draws with.
+     */
+    private static final int SHIFT = 2;
+
+    private static String ascii(GridRasterizer raster) {
+        StringBuilder out = new StringBuilder();
+        for (int y=0; y<raster.getHeight(); ++y) {
+            for (int x=0; x<raster.getWidth(); ++x) {
+                out.append(raster.getPixels()[y*raster.getWidth() + x] == BACKGROUND ? '.' : '#');
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void flatGridMatchesGolden() throws Exception {
+        FlatGridSim sim = new FlatGridSim(3, 3);
+        float[] plane = sim.newPlane();
+        for (int y=0; y<3; ++y) {
+            for (int x=0; x<3; ++x) {
+                plane[sim.index(x, y)] = 1;
+            }
+        }
+        GridGeometry g = new GridGeometry();
+        g.layout(0, 8, 8, 3, 3);
+        GridRasterizer raster = new GridRasterizer(SHIFT);
+        raster.setSize(8, 8);
+        raster.draw(g, sim, plane, 1f, BACKGROUND);
+        assertEquals(
+                "........\n" +
+                "..####..\n" +
+                "..#.#...\n" +
+                "..####..\n" +
+                "..#.#...\n" +
+                "........\n" +
+                "........\n" +
+                "........\n", ascii(raster));
+        assertEquals(GridGeometry.colorForLevel(24), raster.getPixels()[8 + 2]);
+    }
+
+    @Test
+    public void levelsAboveTheRangeClampLikeBatchedLines() throws Exception {
+        FlatGridSim sim = new FlatGridSim(2, 2);
+        float[] plane = sim.newPlane();
+        for (int y=0; y<2; ++y) {
+            plane[sim.index(0, y)] = 30;
+            plane[sim.index(1, y)] = -30;
+        }
+        GridGeometry g = new GridGeometry();
+        g.layout(0, 64, 64, 2, 2);
+        GridRasterizer raster = new GridRasterizer(SHIFT);
+        raster.setSize(64, 64);
+        raster.draw(g, sim, plane, 1f, BACKGROUND);
+        GridLineBatch batch = new GridLineBatch(SHIFT);
+        int grey = batch.getBucketColor(GridLineBatch.MAX_LEVEL >> SHIFT);
+        assertEquals(0xfffcfcfc, grey);
+        // The vertical line at height 30 is at level 750 and the horizontal one at 0.
+        int[] pixels = raster.getPixels();
+        int greys = 0;
+        for (int i=0; i<64*64; ++i) {
+            assertTrue(Integer.toHexString(pixels[i]), pixels[i] == BACKGROUND
+                    || pixels[i] == grey || pixels[i] == 0xff000000);
+            if (pixels[i] == grey) {
+                greys++;
+            }
+        }
+        assertTrue(greys > 0);
+    }
+
+    @Test
+    public void slopedLinesMatchGolden() throws Exception {
+        GridRasterizer raster = new GridRasterizer(SHIFT);
+        raster.setSize(8, 6);
+        raster.draw(new GridGeometry(), new FlatGridSim(1, 1), new float[9], 1f, BACKGROUND);
+        raster.line(0.5f, 0.5f, 7.5f, 3.5f, 0xffffffff);
+        raster.line(7.5f, 5.5f, 5.5f, 0.5f, 0xffffffff);
+        raster.line(-4f, 5.5f, 20f, 5.5f, 0xffffffff);
+        assertEquals(
+                "##......\n" +
+                "..##.#..\n" +
+                "....###.\n" +
+                "......#.\n" +
+                ".......#\n" +
+                "########\n", ascii(raster));
+    }
+
+    /**
+     * A rippled frame drawn with the lines drawGrid batches, by java.awt in their bucket colours,
+     * lights the same pixels to within one, in the same colours.
+     */
+    @Test
+    public void agreesWithBatchedLines() throws Exception {
+        int num_x = 40;
+        int num_y = 20;
+        RippleSequence sequence = new RippleSequence(num_x, num_y, 20);
+        FlatGridSim sim = sequence.getSim();
+        float[] initial = sequence.getInitial();
+        for (int y=num_y/3; y<2*num_y/3; ++y) {
+            for (int x=4; x<num_x-4; x += 2) {
+                initial[sim.index(x, y)] = 10;
+            }
+        }
+        sequence.start("", 1f/30);
+        float[] plane = sequence.getFrame(12);
+
+        GridGeometry g = new GridGeometry();
+        g.layout(0, 320, 320, num_x, num_y);
+        GridRasterizer raster = new GridRasterizer(SHIFT);
+        raster.setSize(320, 320);
+        raster.draw(g, sim, plane, 1f, BACKGROUND);
+
+        GridLineBatch batch = new GridLineBatch(SHIFT);
+        batch.build(g, sim, plane, 1f);
+        BufferedImage image = new BufferedImage(320, 320, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        float[] points = batch.getPoints();
+        for (int b=0; b<batch.getBucketCount(); ++b) {
+            graphics.setColor(new Color(batch.getBucketColor(b), true));
+            int start = batch.getBucketOffset(b);
+            for (int i=start; i<start+batch.getBucketLength(b); i += 4) {
+                graphics.drawLine((int) points[i], (int) points[i+1], (int) points[i+2],
+                        (int) points[i+3]);
+            }
+        }
+        graphics.dispose();
+
+        int lit = 0;
+        int matched = 0;
+        int[] pixels = raster.getPixels();
+        for (int y=1; y<319; ++y) {
+            for (int x=1; x<319; ++x) {
+                if (image.getRGB(x, y) == 0) {
+                    continue;
+                }
+                lit++;
+                boolean near = false;
+                for (int dy=-1; dy<=1; ++dy) {
+                    for (int dx=-1; dx<=1; ++dx) {
+                        near |= pixels[(y+dy)*320 + x+dx] == image.getRGB(x, y);
+                    }
+                }
+                if (near) {
+                    matched++;
+                }
+            }
+        }
+        assertTrue(lit > 10000);
+        assertTrue(matched + " of " + lit, matched >= 0.99*lit);
+    }
+}
@@ -0,0 +1,37 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HeightfieldReaderTest {
+    @Test
+    public void bulkReadMatchesPerPixelHeights() throws Exception {
+        int width = 45, height = 23, num_x = 40, num_y = 20;
+        Random random = new Random(7);
+        int[] pixels = new int[width*height];
+        for (int i=0; i<pixels.length; ++i) {
+            pixels[i] = random.nextInt();
+        }
+        GridSim sim = new GridSim();
+        sim.initGrid(num_x, num_y);
+        float[][][] record = new float[3][num_y][num_x];
+        sim.setRecordInit(record, new PixelArraySource(pixels, width, height));
+        for (int y=0; y<num_y; ++y) {
+            for (int x=0; x<num_x; ++x) {
+                float expected = FlatGridSim.pixelHeight(pixels[y*width + x]);
+                assertEquals(expected, record[0][y][x], 0f);
+                assertEquals(expected, record[1][y][x], 0f);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSourceSmallerThanGrid() throws Exception {
+        FlatGridSim sim = new FlatGridSim(40, 20);
+        new HeightfieldReader().read(new PixelArraySource(new int[39*20], 39, 20), sim,
+                sim.newPlane());
+    }
+}
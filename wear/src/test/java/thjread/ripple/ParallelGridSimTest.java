@@ -0,0 +1,134 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ParallelGridSimTest {
+    private static void randomHeights(FlatGridSim sim, float[] plane, long seed) {
+        Random random = new Random(seed);
+        for (int y=0; y<sim.getNumY(); ++y) {
+            for (int x=0; x<sim.getNumX(); ++x) {
+                plane[sim.index(x, y)] = random.nextFloat()*10;
+            }
+        }
+    }
+
+    private static void assertMatchesSerial(int num_x, int num_y, int stripes) {
+        FlatGridSim serial = new FlatGridSim(num_x, num_y);
+        ParallelGridSim parallel = new ParallelGridSim(num_x, num_y, stripes);
+        try {
+            RippleSequence expected = new RippleSequence(serial, 67);
+            RippleSequence actual = new RippleSequence(parallel, 67);
+            randomHeights(serial, expected.getInitial(), num_x*num_y);
+            randomHeights(parallel, actual.getInitial(), num_x*num_y);
+            expected.start(null, 1f/30);
+            actual.start(null, 1f/30);
+            expected.precompute();
+            actual.precompute();
+            for (int i=0; i<67; ++i) {
+                for (int y=0; y<num_y; ++y) {
+                    for (int x=0; x<num_x; ++x) {
+                        int j = serial.index(x, y);
+                        assertEquals(expected.getFrame(i)[j], actual.getFrame(i)[j], 0f);
+                    }
+                }
+            }
+        } finally {
+            parallel.quit();
+        }
+    }
+
+    @Test
+    public void stripedStepsMatchSerialExactly() throws Exception {
+        assertMatchesSerial(40, 20, 4);
+        assertMatchesSerial(161, 83, 3);
+        assertMatchesSerial(7, 5, 5);
+        assertMatchesSerial(30, 4, 9);
+    }
+
+    @Test
+    public void stepsSeriallyAfterQuit() throws Exception {
+        ParallelGridSim sim = new ParallelGridSim(16, 16, 4);
+        sim.quit();
+        float[] old = sim.newPlane();
+        float[] here = sim.newPlane();
+        here[sim.index(8, 8)] = 10;
+        sim.step(old, here, old, 1f/30);
+        assertTrue(old[sim.index(8, 8)] > 10);
+    }
+
+    @Test(timeout = 10000)
+    public void quitAsAStepIsPublishedDoesNotHang() throws Exception {
+        ParallelGridSim sim = new ParallelGridSim(16, 16, 4) {
+            @Override
+            void beforePublish() {
+                quit();
+                // Let the workers see it and exit before the step is handed out.
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        FlatGridSim serial = new FlatGridSim(16, 16);
+        float[] old = sim.newPlane();
+        float[] here = sim.newPlane();
+        float[] expected = sim.newPlane();
+        randomHeights(sim, here, 1);
+        sim.step(old, here, old, 1f/30);
+        serial.step(expected, here, expected, 1f/30);
+        assertArrayEquals(expected, old, 0f);
+    }
+
+    @Test(timeout = 60000)
+    public void quitDuringStepsDoesNotHang() throws Exception {
+        FlatGridSim serial = new FlatGridSim(16, 16);
+        for (int trial=0; trial<200; ++trial) {
+            final ParallelGridSim sim = new ParallelGridSim(16, 16, 4);
+            float[] old = sim.newPlane();
+            float[] here = sim.newPlane();
+            float[] expectedOld = sim.newPlane();
+            float[] expectedHere = sim.newPlane();
+            randomHeights(sim, here, trial);
+            randomHeights(serial, expectedHere, trial);
+            final int delay = trial % 50;
+            Thread quitter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int spin=0; spin<delay*100; ++spin) {
+                        Thread.yield();
+                    }
+                    sim.quit();
+                }
+            });
+            quitter.start();
+            for (int i=0; i<20; ++i) {
+                sim.step(old, here, old, 1f/30);
+                serial.step(expectedOld, expectedHere, expectedOld, 1f/30);
+                float[] swap = old;
+                old = here;
+                here = swap;
+                swap = expectedOld;
+                expectedOld = expectedHere;
+                expectedHere = swap;
+            }
+            quitter.join();
+            for (int y=0; y<16; ++y) {
+                for (int x=0; x<16; ++x) {
+                    assertEquals(expectedHere[serial.index(x, y)], here[sim.index(x, y)], 0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void smallGridsStaySerial() throws Exception {
+        assertEquals(1, ParallelGridSim.stripesFor(40, 20, 8));
+        assertEquals(4, ParallelGridSim.stripesFor(400, 400, 4));
+        assertEquals(2, ParallelGridSim.stripesFor(4096, 16, 8));
+    }
+}
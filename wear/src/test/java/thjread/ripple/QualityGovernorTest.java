@@ -0,0 +1,93 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the governor with a synthetic cost model: a fixed cost per frame plus a cost per grid
+ * cell, scaled by how fast the device is and with some jitter. The cost per cell can also grow
+ * with grid size, as it does once a grid outgrows the cache, which the governor's prediction
+ * doesn't expect.
+ */
+public class QualityGovernorTest {
+    private static final QualityGovernor.Level[] LEVELS = {
+            new QualityGovernor.Level(20, 10, 15, 100),
+            new QualityGovernor.Level(30, 15, 20, 67),
+            new QualityGovernor.Level(40, 20, 30, 50),
+            new QualityGovernor.Level(60, 30, 30, 33),
+            new QualityGovernor.Level(80, 40, 30, 33),
+    };
+    private static final float BUDGET = 0.25f;
+
+    private static double meanCost(QualityGovernor.Level level, double slowness, double growth) {
+        double cells = level.num_x*level.num_y;
+        return (300000 + 2000*cells*Math.pow(cells/800, growth))*slowness;
+    }
+
+    /**
+     * Plays ripples of four seconds each and returns the number of level changes.
+     */
+    private static int run(QualityGovernor governor, double slowness, double growth, int ripples,
+                           long seed) {
+        Random random = new Random(seed);
+        int changes = 0;
+        for (int r=0; r<ripples; ++r) {
+            QualityGovernor.Level level = governor.getLevel();
+            for (long t=0; t<4000; t += level.redrawMs) {
+                double cost = meanCost(level, slowness, growth);
+                governor.addFrame((long) (cost*(0.8 + 0.4*random.nextDouble())));
+            }
+            if (governor.onBoundary()) {
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+
+    @Test
+    public void fastDeviceClimbsToRichestLevel() throws Exception {
+        QualityGovernor governor = new QualityGovernor(LEVELS, 2, BUDGET);
+        run(governor, 0.5, 0, 100, 1);
+        assertEquals(LEVELS.length-1, governor.getLevelIndex());
+    }
+
+    @Test
+    public void slowDeviceSettlesWithinBudget() throws Exception {
+        QualityGovernor governor = new QualityGovernor(LEVELS, 4, BUDGET);
+        run(governor, 10, 0, 200, 2);
+        int level = governor.getLevelIndex();
+        assertTrue(level < 2);
+        assertTrue(LEVELS[level].load(meanCost(LEVELS[level], 10, 0))*1.2f <= BUDGET);
+    }
+
+    @Test
+    public void failedUpgradesBackOff() throws Exception {
+        // Level 3 looks affordable from level 2 but is over budget once tried.
+        QualityGovernor governor = new QualityGovernor(LEVELS, 2, BUDGET);
+        int changes = run(governor, 1.1, 1, 500, 3);
+        assertTrue("changed level " + changes + " times", changes <= 16);
+        changes = run(governor, 1.1, 1, 500, 4);
+        assertTrue("changed level " + changes + " times", changes <= 6);
+    }
+
+    @Test
+    public void jitterAtBudgetDoesNotOscillate() throws Exception {
+        QualityGovernor governor = new QualityGovernor(LEVELS, 3, BUDGET);
+        int changes = run(governor, 2.12, 0, 500, 5);
+        assertTrue("changed level " + changes + " times", changes <= 1);
+    }
+
+    @Test
+    public void ignoresRipplesWithTooFewFrames() throws Exception {
+        QualityGovernor governor = new QualityGovernor(LEVELS, 2, BUDGET);
+        for (int r=0; r<10; ++r) {
+            governor.addFrame(1000000000L);
+            assertFalse(governor.onBoundary());
+        }
+        assertEquals(2, governor.getLevelIndex());
+    }
+}
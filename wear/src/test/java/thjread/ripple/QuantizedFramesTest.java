@@ -0,0 +1,262 @@
+package thjread.ripple;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks quantized frames against the float frames they were made from, in memory and read
+ * back from a file.
+ */
+public class QuantizedFramesTest {
+    private static final int NUM_X = 24;
+    private static final int NUM_Y = 12;
+    private static final int LENGTH = 40;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static RippleSequence reference() {
+        RippleSequence sequence = new RippleSequence(NUM_X, NUM_Y, LENGTH);
+        FlatGridSim sim = sequence.getSim();
+        for (int y=4; y<8; ++y) {
+            for (int x=3; x<NUM_X-3; x += 3) {
+                sequence.getInitial()[sim.index(x, y)] = 10;
+            }
+        }
+        sequence.start("1:23:45", 1f/30);
+        sequence.precompute();
+        return sequence;
+    }
+
+    private static QuantizedSequence quantized(int bits, int keyInterval) {
+        QuantizedSequence sequence = new QuantizedSequence(new FlatGridSim(NUM_X, NUM_Y), LENGTH,
+                bits, keyInterval);
+        System.arraycopy(reference().getInitial(), 0, sequence.getInitial(), 0,
+                sequence.getInitial().length);
+        sequence.start("1:23:45", 1f/30);
+        sequence.precompute();
+        return sequence;
+    }
+
+    private static void assertClose(FrameSequence expected, FrameSequence actual, int index,
+                                    float tolerance) {
+        FlatGridSim sim = expected.getSim();
+        float[] e = expected.getFrame(index);
+        float[] a = actual.getFrame(index);
+        for (int y=0; y<NUM_Y; ++y) {
+            for (int x=0; x<NUM_X; ++x) {
+                int i = sim.index(x, y);
+                assertEquals("frame " + index + " (" + x + ", " + y + ")", e[i], a[i], tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void sixteenBitFramesAreWithinHalfAStep() throws Exception {
+        RippleSequence reference = reference();
+        QuantizedSequence quantized = quantized(16, 0);
+        for (int i=0; i<LENGTH; ++i) {
+            assertClose(reference, quantized, i, 0.5f/2048 + 1e-6f);
+        }
+        assertEquals("1:23:45", quantized.getText());
+        assertEquals(LENGTH, quantized.getLength());
+    }
+
+    @Test
+    public void eightBitFramesAreWithinHalfAStep() throws Exception {
+        RippleSequence reference = reference();
+        QuantizedSequence quantized = quantized(8, 0);
+        for (int i=0; i<LENGTH; ++i) {
+            assertClose(reference, quantized, i, 0.5f/8 + 1e-6f);
+        }
+    }
+
+    @Test
+    public void changesDecodeExactlyInAnyOrder() throws Exception {
+        QuantizedSequence whole = quantized(16, 0);
+        QuantizedSequence delta = quantized(16, 8);
+        int[] order = {0, 1, 2, 9, 8, 7, 6, 39, 38, 17, 16, 15, 14, 30, 31, 32, 33, 0, 5, 4};
+        for (int index : order) {
+            assertClose(whole, delta, index, 0);
+        }
+        // Reverse then forward, as a ripple is displayed.
+        for (int index=LENGTH-1; index>=0; --index) {
+            assertClose(whole, delta, index, 0);
+        }
+        for (int index=0; index<LENGTH; ++index) {
+            assertClose(whole, delta, index, 0);
+        }
+        assertTrue(delta.getFrames().getByteSize() < whole.getFrames().getByteSize());
+    }
+
+    @Test
+    public void heightsSaturate() throws Exception {
+        FlatGridSim sim = new FlatGridSim(2, 1);
+        float[] plane = sim.newPlane();
+        plane[sim.index(0, 0)] = 100;
+        plane[sim.index(1, 0)] = -100;
+        QuantizedFrames.Encoder encoder = new QuantizedFrames.Encoder(2, 1, 8, 0);
+        encoder.begin(null, 1);
+        encoder.add(sim, plane);
+        float[] decoded = sim.newPlane();
+        new QuantizedFrames.Decoder(encoder.finish()).decode(0, sim, decoded);
+        assertEquals(QuantizedFrames.RANGE - 1f/8, decoded[sim.index(0, 0)], 0);
+        assertEquals(-QuantizedFrames.RANGE + 1f/8, decoded[sim.index(1, 0)], 0);
+    }
+
+    @Test
+    public void restartKeepsFramesOrStreamsNewOnes() throws Exception {
+        QuantizedSequence sequence = quantized(16, 8);
+        QuantizedFrames frames = sequence.getFrames();
+        long steps = sequence.getSteps();
+        sequence.restart(1f/30);
+        assertSame(frames, sequence.getFrames());
+        assertClose(reference(), sequence, LENGTH-1, 0.5f/2048 + 1e-6f);
+        assertEquals(steps, sequence.getSteps());
+
+        // A new time step plays from the simulation, a frame at a time, until precomputed.
+        RippleSequence faster = reference();
+        faster.restart(3f/30);
+        sequence.restart(3f/30);
+        assertNull(sequence.getFrames());
+        steps = sequence.getSteps();
+        for (int i=2; i<10; ++i) {
+            assertClose(faster, sequence, i, 1e-6f);
+        }
+        assertTrue(sequence.getSteps() - steps <= 10);
+        sequence.precompute();
+        assertClose(faster, sequence, LENGTH-1, 0.5f/2048 + 1e-6f);
+    }
+
+    @Test
+    public void mappedFileMatches() throws Exception {
+        QuantizedSequence delta = quantized(16, 8);
+        File file = mFolder.newFile("ripple.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            delta.getFrames().writeTo(out.getChannel());
+        } finally {
+            out.close();
+        }
+        assertEquals(delta.getFrames().getByteSize(), file.length());
+
+        QuantizedSequence mapped = new QuantizedSequence(QuantizedFrames.map(file));
+        assertFalse(mapped.canStart());
+        assertEquals("1:23:45", mapped.getText());
+        assertEquals(LENGTH, mapped.getLength());
+        for (int index=LENGTH-1; index>=0; index -= 3) {
+            assertClose(delta, mapped, index, 0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws Exception {
+        File file = mFolder.newFile("other.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[64]);
+        } finally {
+            out.close();
+        }
+        QuantizedFrames.map(file);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedFramesAreRejected() throws Exception {
+        ByteBuffer buffer = quantized(16, 8).getFrames().getBuffer().duplicate();
+        buffer.limit(buffer.limit() - 1);
+        QuantizedFrames.wrap(buffer.slice());
+    }
+
+    /**
+     * Copies the frames of a quantized sequence, to be corrupted.
+     */
+    private static ByteBuffer copy(QuantizedFrames frames) {
+        ByteBuffer buffer = frames.getBuffer().duplicate();
+        buffer.position(0);
+        buffer.limit(frames.getByteSize());
+        ByteBuffer copy = ByteBuffer.allocate(frames.getByteSize());
+        copy.put(buffer);
+        copy.flip();
+        return copy.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int offsetPosition(QuantizedFrames frames, int index) {
+        return 4*8 + frames.getText().getBytes(Charset.forName("UTF-8")).length + 4*index;
+    }
+
+    @Test
+    public void corruptLengthsAreRejectedBeforeAllocating() throws Exception {
+        QuantizedFrames frames = quantized(16, 8).getFrames();
+        // Text lengths, then frame counts, that overflow an int once added to their position.
+        int[][] corrupt = {{28, Integer.MAX_VALUE}, {28, Integer.MAX_VALUE - 20}, {28, -1},
+                {16, Integer.MAX_VALUE}, {16, Integer.MAX_VALUE/4}};
+        for (int[] field : corrupt) {
+            ByteBuffer buffer = copy(frames);
+            buffer.putInt(field[0], field[1]);
+            try {
+                QuantizedFrames.wrap(buffer);
+                fail(field[0] + ": " + field[1]);
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void middleOffsetsAreChecked() throws Exception {
+        QuantizedFrames frames = quantized(16, 8).getFrames();
+        int[] bad = {frames.getFrameOffset(LENGTH/2 - 1) - 1, frames.getFrameOffset(LENGTH) + 1,
+                -4, Integer.MAX_VALUE};
+        for (int offset : bad) {
+            ByteBuffer buffer = copy(frames);
+            buffer.putInt(offsetPosition(frames, LENGTH/2), offset);
+            try {
+                QuantizedFrames.wrap(buffer);
+                fail("offset " + offset);
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unterminatedChangesAreRejected() throws Exception {
+        QuantizedFrames frames = quantized(16, 8).getFrames();
+        ByteBuffer buffer = copy(frames);
+        for (int p=frames.getFrameOffset(3); p<frames.getFrameOffset(4); ++p) {
+            buffer.put(p, (byte) 0xff);
+        }
+        QuantizedFrames.wrap(buffer);
+    }
+
+    @Test
+    public void corruptFilesFailToMap() throws Exception {
+        QuantizedFrames frames = quantized(16, 8).getFrames();
+        ByteBuffer buffer = copy(frames);
+        buffer.putInt(offsetPosition(frames, LENGTH/2), frames.getFrameOffset(LENGTH/2) + 3);
+        File file = mFolder.newFile("corrupt.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buffer.array());
+        } finally {
+            out.close();
+        }
+        try {
+            QuantizedFrames.map(file);
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
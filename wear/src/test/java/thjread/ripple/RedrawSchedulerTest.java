@@ -0,0 +1,149 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that redraws are skipped only while nothing visible changes.
+ */
+public class RedrawSchedulerTest {
+    private static final int RIPPLE_TIME = 4000;
+    private static final int SIM_RATE = 30;
+    private static final int LENGTH = RIPPLE_TIME/2/30*SIM_RATE/30 + 1;
+    private static final long START = 1000000;
+
+    private static RedrawScheduler scheduler(float[] motion) {
+        RedrawScheduler scheduler = new RedrawScheduler();
+        scheduler.setTimeline(RIPPLE_TIME, SIM_RATE, true);
+        scheduler.setRipple(START, motion, LENGTH);
+        return scheduler;
+    }
+
+    @Test
+    public void timelineMatchesOriginalFrames() throws Exception {
+        RedrawScheduler scheduler = new RedrawScheduler();
+        scheduler.setTimeline(RIPPLE_TIME, SIM_RATE, false);
+        for (int frame=0; frame<RIPPLE_TIME; frame += 7) {
+            int expected = frame <= RIPPLE_TIME/2
+                    ? (int) ((RIPPLE_TIME/2 - frame) * (float) SIM_RATE / 1000)
+                    : (int) ((frame - RIPPLE_TIME/2) * (float) SIM_RATE / 1000);
+            assertEquals(expected, scheduler.position(frame), 0);
+        }
+        assertEquals(0, scheduler.scale(0), 0);
+        assertEquals(0.75f, scheduler.scale(200), 1e-6f);
+        assertEquals(1, scheduler.scale(2000), 0);
+        assertEquals(0.75f, scheduler.scale(RIPPLE_TIME-200), 1e-6f);
+    }
+
+    @Test
+    public void withoutMotionRedrawsEveryInterval() throws Exception {
+        RedrawScheduler scheduler = scheduler(null);
+        scheduler.drawn(START + 1000);
+        assertEquals(50, scheduler.nextRedrawDelay(START + 1000, 50));
+    }
+
+    @Test
+    public void stillRippleSleepsUntilItFades() throws Exception {
+        RedrawScheduler scheduler = scheduler(new float[LENGTH]);
+        scheduler.drawn(START + 1000);
+        // The second interval into the fade out; after the first, lines have changed by under a
+        // colour bucket.
+        assertEquals(RIPPLE_TIME - 400 + 100 - 1000, scheduler.nextRedrawDelay(START + 1000, 50));
+        scheduler.drawn(START + RIPPLE_TIME - 10);
+        assertEquals(10, scheduler.nextRedrawDelay(START + RIPPLE_TIME - 10, 50));
+    }
+
+    @Test
+    public void fadeRedrawsEveryInterval() throws Exception {
+        RedrawScheduler scheduler = scheduler(new float[LENGTH]);
+        scheduler.drawn(START + 100);
+        assertEquals(50, scheduler.nextRedrawDelay(START + 100, 50));
+        scheduler.drawn(START + RIPPLE_TIME - 300);
+        assertEquals(50, scheduler.nextRedrawDelay(START + RIPPLE_TIME - 300, 50));
+    }
+
+    @Test
+    public void slowMotionSkipsUntilVisible() throws Exception {
+        float[] motion = new float[LENGTH];
+        for (int i=0; i<LENGTH; ++i) {
+            motion[i] = RedrawScheduler.VISIBLE_DISPLACEMENT/4;
+        }
+        // 30 frames a second is 1.5 frames an interval, so four frames of motion first reach a
+        // visible change after three intervals.
+        RedrawScheduler scheduler = scheduler(motion);
+        long now = START + 2500;
+        scheduler.drawn(now);
+        assertEquals(150, scheduler.nextRedrawDelay(now, 50));
+
+        // Fast motion is redrawn every interval.
+        for (int i=0; i<LENGTH; ++i) {
+            motion[i] = 1;
+        }
+        scheduler.drawn(now);
+        assertEquals(50, scheduler.nextRedrawDelay(now, 50));
+    }
+
+    @Test
+    public void midpointSpansTheStillFirstFrame() throws Exception {
+        float[] motion = new float[LENGTH];
+        for (int i=1; i<LENGTH; ++i) {
+            motion[i] = 1;
+        }
+        // Only frame 0 to 1 is still, so around the midpoint the next visible change is when
+        // the display has moved half a frame, half a pixel, past it.
+        RedrawScheduler scheduler = scheduler(motion);
+        long now = START + RIPPLE_TIME/2;
+        scheduler.drawn(now);
+        long delay = scheduler.nextRedrawDelay(now, 10);
+        assertEquals(50, delay);
+        assertEquals(1.5f, scheduler.position(now - START + delay), 1e-6f);
+    }
+
+    @Test
+    public void measuredMotionMatchesFrames() throws Exception {
+        int num_x = 12, num_y = 8;
+        RippleSequence stored = new RippleSequence(num_x, num_y, LENGTH);
+        StreamingSequence streamed = new StreamingSequence(num_x, num_y, LENGTH);
+        for (FrameSequence sequence : new FrameSequence[] {stored, streamed}) {
+            sequence.getInitial()[sequence.getSim().index(4, 3)] = 10;
+            sequence.start(null, 1f/30);
+            assertNull(sequence.getMotion());
+            sequence.precompute();
+        }
+        FlatGridSim sim = stored.getSim();
+        for (int i=0; i<LENGTH-1; ++i) {
+            float expected = sim.maxChange(stored.getFrame(i), stored.getFrame(i+1));
+            assertEquals(expected, stored.getMotion()[i], 0);
+            assertEquals(expected, streamed.getMotion()[i], 1e-4f);
+        }
+        assertEquals(0, stored.getMotion()[0], 0);
+    }
+
+    @Test
+    public void defaultRippleSkipsRedraws() throws Exception {
+        // The default quality level: a 40x20 grid at 30 frames a second, redrawn every 50 ms,
+        // rippling from blocks of text height.
+        RippleSequence sequence = new RippleSequence(40, 20, LENGTH);
+        FlatGridSim sim = sequence.getSim();
+        for (int c=0; c<7; ++c) {
+            for (int y=8; y<14; ++y) {
+                for (int x=3+5*c; x<6+5*c; ++x) {
+                    sequence.getInitial()[sim.index(x, y)] = c == 2 || c == 5 ? 3 : 10;
+                }
+            }
+        }
+        sequence.start(null, 1f/SIM_RATE);
+        sequence.precompute();
+        RedrawScheduler scheduler = scheduler(sequence.getMotion());
+
+        int redraws = 0;
+        for (long now=START; now<START+RIPPLE_TIME; now += scheduler.nextRedrawDelay(now, 50)) {
+            scheduler.drawn(now);
+            redraws++;
+        }
+        // Most of the ripple moves lines by more than a pixel an interval, but around the
+        // midpoint, where it turns, redraws are skipped.
+        assertTrue(redraws + " redraws", redraws <= RIPPLE_TIME/50 - 2);
+    }
+}
@@ -0,0 +1,91 @@
+package thjread.ripple;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks storing ripples and state across cache instances, as across engines.
+ */
+public class RippleDiskCacheTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static QuantizedFrames frames(String text, float height) {
+        FlatGridSim sim = new FlatGridSim(4, 3);
+        float[] plane = sim.newPlane();
+        plane[sim.index(1, 1)] = height;
+        QuantizedFrames.Encoder encoder = new QuantizedFrames.Encoder(4, 3, 16, 0);
+        encoder.begin(text, 2);
+        encoder.add(sim, plane);
+        encoder.add(sim, plane);
+        return encoder.finish();
+    }
+
+    private static float height(QuantizedFrames frames) {
+        FlatGridSim sim = new FlatGridSim(4, 3);
+        float[] plane = sim.newPlane();
+        new QuantizedFrames.Decoder(frames).decode(1, sim, plane);
+        return plane[sim.index(1, 1)];
+    }
+
+    @Test
+    public void ripplesSurviveANewInstance() throws Exception {
+        File dir = new File(mFolder.getRoot(), "ripples");
+        new RippleDiskCache(dir, 4).save("a-12:34", frames("12:34", 5));
+        RippleDiskCache cache = new RippleDiskCache(dir, 4);
+        QuantizedFrames loaded = cache.load("a-12:34");
+        assertEquals("12:34", loaded.getText());
+        assertEquals(5, height(loaded), 0);
+        assertNull(cache.load("a-12:35"));
+
+        cache.save("a-12:34", frames("12:34", 7));
+        assertEquals(7, height(cache.load("a-12:34")), 0);
+    }
+
+    @Test
+    public void oldestRipplesArePruned() throws Exception {
+        RippleDiskCache cache = new RippleDiskCache(mFolder.getRoot(), 2);
+        for (int i=0; i<4; ++i) {
+            cache.save("k" + i, frames("1:0" + i, i));
+            // Modification times may only have one second resolution.
+            new File(mFolder.getRoot(), "k" + i + ".ripple").setLastModified(1000000L*(i+1));
+        }
+        cache.save("k4", frames("1:04", 4));
+        assertFalse(cache.contains("k0"));
+        assertFalse(cache.contains("k1"));
+        assertFalse(cache.contains("k2"));
+        assertTrue(cache.contains("k3"));
+        assertTrue(cache.contains("k4"));
+    }
+
+    @Test
+    public void unreadableRipplesAreDropped() throws Exception {
+        RippleDiskCache cache = new RippleDiskCache(mFolder.getRoot(), 4);
+        cache.save("bad", frames(null, 1));
+        FileOutputStream out = new FileOutputStream(new File(mFolder.getRoot(), "bad.ripple"));
+        try {
+            out.write(new byte[] {1, 2, 3});
+        } finally {
+            out.close();
+        }
+        assertNull(cache.load("bad"));
+        assertFalse(cache.contains("bad"));
+    }
+
+    @Test
+    public void stateRoundTrips() throws Exception {
+        File dir = new File(mFolder.getRoot(), "state");
+        assertTrue(new RippleDiskCache(dir, 4).readState().isEmpty());
+        Properties state = new Properties();
+        state.setProperty("quality", "3");
+        new RippleDiskCache(dir, 4).writeState(state);
+        assertEquals("3", new RippleDiskCache(dir, 4).readState().getProperty("quality"));
+    }
+}
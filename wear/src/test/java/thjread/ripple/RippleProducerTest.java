@@ -0,0 +1,224 @@
+package thjread.ripple;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the producer thread off-device, with text drawn as solid blocks.
+ */
+public class RippleProducerTest {
+    private static final int NUM_X = 40;
+    private static final int NUM_Y = 20;
+    private static final int LENGTH = 4000/2/30 + 1;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static class BlockText implements TextRasterizer {
+        @Override
+        public void rasterizeGlyph(char c, float x, float y, FlatGridSim sim, float[] plane) {
+            for (int i=0; i<plane.length; ++i) {
+                plane[i] = 0;
+            }
+            drawGlyph(c, (int) x, (int) y, sim, plane);
+        }
+
+        private static void drawGlyph(char c, int x, int y, FlatGridSim sim, float[] plane) {
+            for (int gy=y-6; gy<y; ++gy) {
+                for (int gx=x; gx<x+3; ++gx) {
+                    plane[sim.index(gx, gy)] += c == ':' ? 3 : c - '0' + 1;
+                }
+            }
+        }
+
+        @Override
+        public void render(String text, FlatGridSim sim, float[] plane) {
+            for (int i=0; i<plane.length; ++i) {
+                plane[i] = 0;
+            }
+            float[] xs = new float[text.length()];
+            float y = layout(text, xs);
+            for (int i=0; i<text.length(); ++i) {
+                drawGlyph(text.charAt(i), (int) xs[i], (int) y, sim, plane);
+            }
+        }
+
+        @Override
+        public float layout(String text, float[] xs) {
+            for (int i=0; i<text.length(); ++i) {
+                xs[i] = NUM_X/2 - 2*text.length() + 4*i;
+            }
+            return 13;
+        }
+    }
+
+    private static FrameSequence await(RippleProducer producer, CharSequence text)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            FrameSequence ready = producer.take(text);
+            if (ready != null) {
+                return ready;
+            }
+            Thread.sleep(1);
+        }
+        fail("no ripple for " + text);
+        return null;
+    }
+
+    private static void assertFrames(BlockText text, String time, float diff,
+                                     FrameSequence sequence) {
+        RippleSequence expected = new RippleSequence(NUM_X, NUM_Y, LENGTH);
+        text.render(time, expected.getSim(), expected.getInitial());
+        expected.start(null, diff);
+        for (int i=0; i<LENGTH; i += 11) {
+            float[] e = expected.getFrame(i);
+            float[] a = sequence.getFrame(i);
+            for (int y=0; y<NUM_Y; ++y) {
+                for (int x=0; x<NUM_X; ++x) {
+                    int j = expected.getSim().index(x, y);
+                    assertEquals("frame " + i, e[j], a[j], 1e-3f);
+                }
+            }
+        }
+    }
+
+    private static void assertProduces(int frames, boolean glyphCache) throws Exception {
+        BlockText text = new BlockText();
+        RippleProducer producer = new RippleProducer(text, NUM_X, NUM_Y, LENGTH, 1f/30);
+        producer.setFrames(frames);
+        if (glyphCache) {
+            producer.setGlyphCache(1 << 24);
+        }
+        producer.start();
+        try {
+            TimeText time = new TimeText(true);
+            for (int second=45296; second<45300; ++second) {
+                time.setSecondOfDay(second);
+                producer.request(second);
+                FrameSequence sequence = await(producer, time);
+                assertEquals(time.toString(), sequence.getText());
+                assertFrames(text, time.toString(), 1f/30, sequence);
+                producer.recycle(sequence);
+            }
+        } finally {
+            producer.quit();
+        }
+    }
+
+    @Test
+    public void producesStoredSequences() throws Exception {
+        assertProduces(RippleProducer.FRAMES_STORED, false);
+    }
+
+    @Test
+    public void producesFromGlyphCache() throws Exception {
+        assertProduces(RippleProducer.FRAMES_STORED, true);
+    }
+
+    @Test
+    public void producesStreamedSequences() throws Exception {
+        assertProduces(RippleProducer.FRAMES_STREAMED, false);
+    }
+
+    @Test
+    public void producesQuantizedSequences() throws Exception {
+        assertProduces(RippleProducer.FRAMES_QUANTIZED, false);
+    }
+
+    @Test
+    public void warmStartIsSavedForTheNextEngine() throws Exception {
+        BlockText text = new BlockText();
+        RippleDiskCache cache = new RippleDiskCache(mFolder.getRoot(), 4);
+        RippleProducer producer = new RippleProducer(text, NUM_X, NUM_Y, LENGTH, 1f/30);
+        producer.setWarmStart(cache, "test-", text, 3f/30);
+        producer.start();
+        TimeText time = new TimeText(false);
+        time.setSecondOfDay(45296);
+        try {
+            producer.requestWarmStart(45296);
+            FrameSequence warm = null;
+            long deadline = System.currentTimeMillis() + 10000;
+            while (warm == null && System.currentTimeMillis() < deadline) {
+                warm = producer.takeWarmStart(time);
+                Thread.sleep(1);
+            }
+            assertNotNull(warm);
+            assertFrames(text, time.toString(), 3f/30, warm);
+        } finally {
+            producer.quit();
+        }
+        assertTrue(cache.contains("test-" + time));
+
+        RippleProducer next = new RippleProducer(text, NUM_X, NUM_Y, LENGTH, 1f/30);
+        next.setWarmStart(cache, "test-", text, 3f/30);
+        next.loadWarmStart(time);
+        FrameSequence loaded = next.takeWarmStart(time);
+        assertNotNull(loaded);
+        assertFrames(text, time.toString(), 3f/30, loaded);
+        assertEquals(0, loaded.getSteps());
+        time.setSecondOfDay(45360);
+        next.loadWarmStart(time);
+        assertNull(next.takeWarmStart(time));
+    }
+
+    @Test
+    public void stateIsWrittenOnTheWorker() throws Exception {
+        final AtomicReference<Thread> writer = new AtomicReference<>();
+        RippleDiskCache cache = new RippleDiskCache(mFolder.getRoot(), 4) {
+            @Override
+            public void writeState(Properties state) throws IOException {
+                super.writeState(state);
+                writer.set(Thread.currentThread());
+            }
+        };
+        BlockText text = new BlockText();
+        RippleProducer producer = new RippleProducer(text, NUM_X, NUM_Y, LENGTH, 1f/30);
+        producer.setWarmStart(cache, "test-", text, 3f/30);
+        producer.start();
+        try {
+            Properties state = new Properties();
+            state.setProperty("quality", "2");
+            producer.saveState(state);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (writer.get() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals("RippleProducer", writer.get().getName());
+            assertEquals("2", cache.readState().getProperty("quality"));
+
+            // The worker carries on producing ripples after writing.
+            TimeText time = new TimeText(true);
+            time.setTime(0);
+            producer.request(time.getSecondOfDay());
+            assertNotNull(await(producer, time));
+        } finally {
+            producer.quit();
+        }
+    }
+
+    @Test
+    public void takeIgnoresOtherText() throws Exception {
+        RippleProducer producer = new RippleProducer(new BlockText(), NUM_X, NUM_Y, LENGTH,
+                1f/30);
+        producer.start();
+        try {
+            TimeText time = new TimeText(true);
+            time.setSecondOfDay(3600);
+            producer.request(3600);
+            await(producer, time);
+            producer.request(3601);
+            Thread.sleep(50);
+            assertNull(producer.take(time));
+        } finally {
+            producer.quit();
+        }
+    }
+}
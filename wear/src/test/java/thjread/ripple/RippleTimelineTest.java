@@ -0,0 +1,123 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RippleTimelineTest {
+    private static final int RIPPLE_TIME = 4000;
+    private static final int LENGTH = 61;
+
+    private static class FakeClock implements RippleTimeline.Clock {
+        long mNow;
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+
+    private final FakeClock mClock = new FakeClock();
+
+    private RippleTimeline newTimeline() {
+        RippleTimeline timeline = new RippleTimeline(mClock);
+        timeline.setTimeline(RIPPLE_TIME, 30, false);
+        return timeline;
+    }
+
+    private boolean boundary(RippleTimeline timeline) {
+        boolean boundary = timeline.boundary(timeline.now());
+        if (boundary) {
+            timeline.setRipple(null, LENGTH);
+        }
+        return boundary;
+    }
+
+    @Test
+    public void leavingAmbientDissolvesForASecond() throws Exception {
+        RippleTimeline timeline = newTimeline();
+        mClock.mNow = 100000;
+        assertTrue(boundary(timeline));
+        assertTrue(timeline.isFromAmbient());
+        assertTrue(timeline.isDissolving());
+        assertEquals(100000 + 1000 + RIPPLE_TIME/2, timeline.getTextTime());
+        assertEquals(1f, timeline.scale(100000), 0);
+        for (int i=0; i<LENGTH+5; ++i) {
+            assertEquals(Math.min(2 + i, LENGTH-1), timeline.position(mClock.mNow), 0);
+            timeline.drawn(mClock.mNow);
+        }
+        assertEquals(50, timeline.nextRedrawDelay(mClock.mNow, 50));
+
+        mClock.mNow = 100999;
+        assertFalse(boundary(timeline));
+        mClock.mNow = 101000;
+        assertTrue(boundary(timeline));
+        assertFalse(timeline.isFromAmbient());
+        assertEquals(RippleTimeline.INTERACTIVE, timeline.getState());
+        assertEquals(101000 + 3*RIPPLE_TIME/2, timeline.getTextTime());
+        assertEquals(RIPPLE_TIME/2*30/1000, timeline.position(101000), 0);
+        assertEquals(0, timeline.position(101000 + RIPPLE_TIME/2), 0);
+        assertEquals(0, timeline.scale(101000), 0);
+    }
+
+    @Test
+    public void ripplesStartEveryRippleTime() throws Exception {
+        RippleTimeline timeline = newTimeline();
+        mClock.mNow = 100000;
+        boundary(timeline);
+        mClock.mNow = 101000;
+        boundary(timeline);
+        int boundaries = 0;
+        for (mClock.mNow = 101050; mClock.mNow < 101000 + 10*RIPPLE_TIME; mClock.mNow += 50) {
+            if (boundary(timeline)) {
+                boundaries++;
+                assertEquals(mClock.mNow, timeline.getRippleStart());
+                assertFalse(timeline.isLate());
+            }
+            assertEquals(RippleTimeline.INTERACTIVE, timeline.getState());
+        }
+        assertEquals(9, boundaries);
+    }
+
+    @Test
+    public void lateFrameDissolvesBriefly() throws Exception {
+        RippleTimeline timeline = newTimeline();
+        mClock.mNow = 100000;
+        boundary(timeline);
+        mClock.mNow = 101000;
+        boundary(timeline);
+
+        mClock.mNow = 101000 + RIPPLE_TIME + 100;
+        assertTrue(boundary(timeline));
+        assertFalse(timeline.isLate());
+        assertFalse(timeline.isDissolving());
+
+        mClock.mNow += 2*RIPPLE_TIME;
+        assertTrue(boundary(timeline));
+        assertTrue(timeline.isLate());
+        assertTrue(timeline.isDissolving());
+        long late = mClock.mNow;
+        assertEquals(late + 200 + RIPPLE_TIME/2, timeline.getTextTime());
+        mClock.mNow = late + 199;
+        assertFalse(boundary(timeline));
+        mClock.mNow = late + 200;
+        assertTrue(boundary(timeline));
+        assertEquals(RippleTimeline.INTERACTIVE, timeline.getState());
+    }
+
+    @Test
+    public void ambientFramesRestartTheDissolve() throws Exception {
+        RippleTimeline timeline = newTimeline();
+        mClock.mNow = 100000;
+        boundary(timeline);
+        mClock.mNow = 101000;
+        boundary(timeline);
+        mClock.mNow = 102000;
+        timeline.ambientFrame();
+        assertEquals(RippleTimeline.AMBIENT, timeline.getState());
+        mClock.mNow = 102010;
+        assertTrue(boundary(timeline));
+        assertTrue(timeline.isFromAmbient());
+        assertTrue(timeline.isDissolving());
+    }
+}
@@ -0,0 +1,98 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the closed-form frames frame by frame against the time-stepper.
+ */
+public class SpectralGridSimTest {
+    private static void compare(int num_x, int num_y, float[] initial, float diff, int frames) {
+        RippleSequence stepped = new RippleSequence(num_x, num_y, frames);
+        System.arraycopy(initial, 0, stepped.getInitial(), 0, initial.length);
+        stepped.start(null, diff);
+
+        SpectralSequence spectral = new SpectralSequence(num_x, num_y, frames);
+        System.arraycopy(initial, 0, spectral.getInitial(), 0, initial.length);
+        spectral.start(null, diff);
+
+        FlatGridSim sim = stepped.getSim();
+        for (int i=0; i<frames; ++i) {
+            float[] expected = stepped.getFrame(i);
+            float[] actual = spectral.getFrame(i);
+            for (int y=0; y<num_y; ++y) {
+                for (int x=0; x<num_x; ++x) {
+                    assertEquals("frame " + i + " at " + x + "," + y,
+                            expected[sim.index(x, y)], actual[sim.index(x, y)], 2e-3f);
+                }
+            }
+        }
+    }
+
+    private static float[] randomHeights(FlatGridSim sim, long seed) {
+        Random random = new Random(seed);
+        float[] plane = sim.newPlane();
+        for (int y=0; y<sim.getNumY(); ++y) {
+            for (int x=0; x<sim.getNumX(); ++x) {
+                plane[sim.index(x, y)] = random.nextFloat()*10;
+            }
+        }
+        return plane;
+    }
+
+    private static float[] textLikeHeights(FlatGridSim sim) {
+        float[] plane = sim.newPlane();
+        for (int y=sim.getNumY()/3; y<2*sim.getNumY()/3; ++y) {
+            for (int x=5; x<sim.getNumX()-5; x += 3) {
+                plane[sim.index(x, y)] = 10;
+                plane[sim.index(x+1, y)] = 4.5f;
+            }
+        }
+        return plane;
+    }
+
+    @Test
+    public void matchesStepperOverWholeRipple() throws Exception {
+        FlatGridSim sim = new FlatGridSim(40, 20);
+        compare(40, 20, textLikeHeights(sim), 1f/30, 4000/2/30 + 1);
+        compare(40, 20, randomHeights(sim, 1), 1f/30, 4000/2/30 + 1);
+    }
+
+    @Test
+    public void matchesStepperAtFasterTimeStep() throws Exception {
+        FlatGridSim sim = new FlatGridSim(40, 20);
+        compare(40, 20, textLikeHeights(sim), 3f/30, 4000/2/30 + 1);
+    }
+
+    @Test
+    public void matchesStepperOnOddGrid() throws Exception {
+        FlatGridSim sim = new FlatGridSim(17, 5);
+        compare(17, 5, randomHeights(sim, 2), 1f/30, 200);
+    }
+
+    @Test
+    public void framesCanBeReadInAnyOrder() throws Exception {
+        SpectralSequence spectral = new SpectralSequence(40, 20, 67);
+        float[] initial = textLikeHeights(spectral.getSim());
+        System.arraycopy(initial, 0, spectral.getInitial(), 0, initial.length);
+        spectral.start(null, 1f/30);
+        float[] late = spectral.getFrame(66).clone();
+        spectral.getFrame(3);
+        assertArrayEquals(late, spectral.getFrame(66), 0f);
+        float[] first = spectral.getFrame(0);
+        FlatGridSim sim = spectral.getSim();
+        for (int y=0; y<20; ++y) {
+            for (int x=0; x<40; ++x) {
+                assertEquals(initial[sim.index(x, y)], first[sim.index(x, y)], 1e-4f);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnstableTimeStep() throws Exception {
+        new SpectralGridSim(40, 20).setDiff(2f);
+    }
+}
@@ -0,0 +1,75 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StreamingSequenceTest {
+    private static final int NUM_X = 40;
+    private static final int NUM_Y = 20;
+    private static final int LENGTH = 4000/2/30 + 1;
+
+    private static void textLikeHeights(FlatGridSim sim, float[] plane) {
+        for (int y=NUM_Y/3; y<2*NUM_Y/3; ++y) {
+            for (int x=5; x<NUM_X-5; x += 3) {
+                plane[sim.index(x, y)] = 10;
+                plane[sim.index(x+1, y)] = 4.5f;
+            }
+        }
+    }
+
+    private static void assertFrame(RippleSequence expected, int index, float[] actual) {
+        FlatGridSim sim = expected.getSim();
+        float[] frame = expected.getFrame(index);
+        for (int y=0; y<NUM_Y; ++y) {
+            for (int x=0; x<NUM_X; ++x) {
+                assertEquals("frame " + index, frame[sim.index(x, y)], actual[sim.index(x, y)], 1e-3f);
+            }
+        }
+    }
+
+    /**
+     * Plays the frames in the order onDraw shows them: from the end back to the start, then
+     * forward again, skipping some on the way.
+     */
+    @Test
+    public void reversePlaybackMatchesStoredFrames() throws Exception {
+        RippleSequence stored = new RippleSequence(NUM_X, NUM_Y, LENGTH);
+        textLikeHeights(stored.getSim(), stored.getInitial());
+        stored.start(null, 1f/30);
+        stored.precompute();
+
+        StreamingSequence streamed = new StreamingSequence(NUM_X, NUM_Y, LENGTH);
+        textLikeHeights(streamed.getSim(), streamed.getInitial());
+        streamed.start(null, 1f/30);
+        streamed.precompute();
+
+        for (int frame=0; frame<4000; frame += 50) {
+            int index;
+            if (frame <= 2000) {
+                index = (int) ((2000 - frame) * 30f / 1000);
+            } else {
+                index = (int) ((frame - 2000) * 30f / 1000);
+            }
+            assertFrame(stored, index, streamed.getFrame(index));
+        }
+    }
+
+    @Test
+    public void restartPlaysAtNewTimeStep() throws Exception {
+        RippleSequence stored = new RippleSequence(NUM_X, NUM_Y, LENGTH);
+        textLikeHeights(stored.getSim(), stored.getInitial());
+        stored.start(null, 3f/30);
+
+        StreamingSequence streamed = new StreamingSequence(NUM_X, NUM_Y, LENGTH);
+        textLikeHeights(streamed.getSim(), streamed.getInitial());
+        streamed.start(null, 1f/30);
+        streamed.precompute();
+        streamed.getFrame(40);
+        streamed.restart(3f/30);
+        for (int i=2; i<LENGTH; ++i) {
+            assertFrame(stored, i, streamed.getFrame(i));
+        }
+        assertFrame(stored, 0, streamed.getFrame(0));
+    }
+}
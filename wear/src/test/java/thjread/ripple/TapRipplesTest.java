@@ -0,0 +1,113 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TapRipplesTest {
+    private static final int NUM_X = 40;
+    private static final int NUM_Y = 20;
+    private static final int RATE = 30;
+    private static final long LIFETIME = 2000;
+
+    private static float fade(long sinceTap) {
+        float remaining = 1 - (float) sinceTap/LIFETIME;
+        return remaining*(2 - remaining);
+    }
+
+    @Test
+    public void tapShowsOnTheNextFrame() throws Exception {
+        FlatGridSim sim = new FlatGridSim(NUM_X, NUM_Y);
+        float[] frame = sim.newPlane();
+        frame[sim.index(3, 3)] = 2;
+        TapRipples taps = new TapRipples(NUM_X, NUM_Y, RATE, 1f/RATE, LIFETIME);
+        assertNull(taps.apply(sim, frame, 1f, 1000));
+
+        taps.tap(10, 5, 1000);
+        float[] shown = taps.apply(sim, frame, 0.5f, 1000);
+        assertEquals(TapRipples.TAP_HEIGHT, shown[sim.index(10, 5)], 1e-5f);
+        assertEquals(1, shown[sim.index(3, 3)], 1e-5f);
+        assertEquals(0, shown[sim.index(30, 15)], 0);
+    }
+
+    @Test
+    public void tapsSpreadAsTheyWouldSimulatedAlone() throws Exception {
+        FlatGridSim sim = new FlatGridSim(NUM_X, NUM_Y);
+        TapRipples taps = new TapRipples(NUM_X, NUM_Y, RATE, 1f/RATE, LIFETIME);
+        taps.tap(10, 5, 0);
+        taps.tap(30, 12, 0);
+
+        // The same impulses, stepped densely.
+        TapRipples single = new TapRipples(NUM_X, NUM_Y, RATE, 1f/RATE, LIFETIME);
+        single.tap(10, 5, 0);
+        single.tap(30, 12, 0);
+        float[] old = single.apply(sim, sim.newPlane(), 0, 0).clone();
+        float[] here = old.clone();
+        float[] zero = sim.newPlane();
+
+        int steps = 0;
+        for (long now=0; now<1000; now += 1000/RATE) {
+            float[] shown = taps.apply(sim, zero, 0, now);
+            // Frames blend the last two steps.
+            long step = now*RATE/1000;
+            float t = now*RATE/1000f - step;
+            while (steps < step) {
+                float[] next = sim.newPlane();
+                sim.step(old, here, next, 1f/RATE);
+                old = here;
+                here = next;
+                steps++;
+            }
+            for (int y=0; y<NUM_Y; ++y) {
+                for (int x=0; x<NUM_X; ++x) {
+                    int i = sim.index(x, y);
+                    float expected = fade(now)*((1 - t)*old[i] + t*here[i]);
+                    assertEquals("at " + now, expected, shown[i], 1e-4f);
+                }
+            }
+        }
+        assertEquals(steps, taps.getSteps());
+    }
+
+    @Test
+    public void catchUpIsBounded() throws Exception {
+        FlatGridSim sim = new FlatGridSim(NUM_X, NUM_Y);
+        TapRipples taps = new TapRipples(NUM_X, NUM_Y, RATE, 1f/RATE, LIFETIME);
+        taps.tap(10, 5, 0);
+        assertEquals(TapRipples.MAX_STEPS_PER_FRAME, taps.advance(1000));
+        assertEquals(1, taps.advance(1000 + 1000/RATE + 1));
+        assertNotNull(taps.apply(sim, sim.newPlane(), 1, 1100));
+    }
+
+    @Test
+    public void ripplesFadeAndRestartCleanly() throws Exception {
+        FlatGridSim sim = new FlatGridSim(NUM_X, NUM_Y);
+        TapRipples taps = new TapRipples(NUM_X, NUM_Y, RATE, 1f/RATE, LIFETIME);
+        taps.tap(10, 5, 0);
+        for (long now=0; now<1500; now += 50) {
+            taps.apply(sim, sim.newPlane(), 1, now);
+        }
+        taps.tap(20, 10, 1500);
+        assertTrue(taps.isActive(1500 + LIFETIME - 1));
+        assertNull(taps.apply(sim, sim.newPlane(), 1, 1500 + LIFETIME));
+
+        taps.tap(20, 10, 5000);
+        assertEquals(0, taps.getSteps());
+        float[] shown = taps.apply(sim, sim.newPlane(), 1, 5000);
+        assertEquals(TapRipples.TAP_HEIGHT, shown[sim.index(20, 10)], 0);
+        assertEquals(0, shown[sim.index(10, 5)], 0);
+    }
+
+    @Test
+    public void screenPointsMapToGridCells() throws Exception {
+        GridGeometry geometry = new GridGeometry();
+        geometry.layout(0, 320, 320, NUM_X, NUM_Y);
+        for (int y=0; y<NUM_Y; ++y) {
+            for (int x=0; x<NUM_X; ++x) {
+                assertEquals(x, geometry.cellX(geometry.pointX(x) + 3));
+                assertEquals(y, geometry.cellY(geometry.pointY(y, 0) - 3));
+            }
+        }
+        assertEquals(-1, geometry.cellX(0));
+    }
+}
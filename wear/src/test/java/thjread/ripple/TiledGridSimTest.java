@@ -0,0 +1,116 @@
+package thjread.ripple;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that skipping tiles at rest leaves every frame exactly as the dense kernel computes it.
+ */
+public class TiledGridSimTest {
+    private static final float DIFF = 1f/30;
+
+    /**
+     * A raised background with a small bump at (cx, cy).
+     */
+    private static void fillSpot(FlatGridSim sim, float[] plane, int cx, int cy) {
+        for (int y=0; y<sim.getNumY(); ++y) {
+            for (int x=0; x<sim.getNumX(); ++x) {
+                plane[sim.index(x, y)] = 2;
+            }
+        }
+        plane[sim.index(cx, cy)] = 10;
+        plane[sim.index(cx+1, cy)] = 7;
+    }
+
+    private static void assertSameFrame(FlatGridSim sim, float[] expected, float[] actual,
+                                        String message) {
+        for (int y=0; y<sim.getNumY(); ++y) {
+            for (int x=0; x<sim.getNumX(); ++x) {
+                int i = sim.index(x, y);
+                assertEquals(message + " (" + x + ", " + y + ")", expected[i], actual[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void storedRippleMatchesDense() throws Exception {
+        int num_x = 45, num_y = 21, length = 67;
+        FlatGridSim flat = new FlatGridSim(num_x, num_y);
+        TiledGridSim tiled = new TiledGridSim(num_x, num_y, 8);
+        RippleSequence expected = new RippleSequence(flat, length);
+        RippleSequence actual = new RippleSequence(tiled, length);
+        fillSpot(flat, expected.getInitial(), 10, 5);
+        fillSpot(tiled, actual.getInitial(), 10, 5);
+        expected.start("", DIFF);
+        actual.start("", DIFF);
+
+        int fewestActive = Integer.MAX_VALUE;
+        for (int i=0; i<length; ++i) {
+            assertSameFrame(flat, expected.getFrame(i), actual.getFrame(i), "frame " + i);
+            if (i >= 2) {
+                fewestActive = Math.min(fewestActive, tiled.getActiveTiles());
+            }
+        }
+        assertTrue("some tiles skipped", fewestActive < tiled.getTileCount());
+
+        // Restarting steps from the same initial frames again, so nothing carries over.
+        expected.restart(DIFF/2);
+        actual.restart(DIFF/2);
+        for (int i=0; i<length; ++i) {
+            assertSameFrame(flat, expected.getFrame(i), actual.getFrame(i), "restart " + i);
+        }
+    }
+
+    @Test
+    public void streamedSeeksMatchDense() throws Exception {
+        int num_x = 32, num_y = 24, length = 40;
+        FlatGridSim flat = new FlatGridSim(num_x, num_y);
+        TiledGridSim tiled = new TiledGridSim(num_x, num_y, 4);
+        StreamingSequence expected = new StreamingSequence(flat, length);
+        StreamingSequence actual = new StreamingSequence(tiled, length);
+        fillSpot(flat, expected.getInitial(), 3, 20);
+        fillSpot(tiled, actual.getInitial(), 3, 20);
+        expected.start("", DIFF);
+        actual.start("", DIFF);
+
+        int[] order = {0, 5, 20, 12, 3, 38, 39, 30, 1, 25};
+        for (int index : order) {
+            assertSameFrame(flat, expected.getFrame(index), actual.getFrame(index),
+                    "frame " + index);
+        }
+        actual.precompute();
+        expected.precompute();
+        for (int index=length-1; index>=0; index -= 3) {
+            assertSameFrame(flat, expected.getFrame(index), actual.getFrame(index),
+                    "reverse " + index);
+        }
+    }
+
+    @Test
+    public void unrelatedPlanesAreSteppedDensely() throws Exception {
+        int num_x = 16, num_y = 16;
+        FlatGridSim flat = new FlatGridSim(num_x, num_y);
+        TiledGridSim tiled = new TiledGridSim(num_x, num_y, 4);
+        float[] a = flat.newPlane();
+        float[] b = flat.newPlane();
+        for (int i=0; i<8; ++i) {
+            tiled.step(a, b, a, DIFF);
+            float[] t = a;
+            a = b;
+            b = t;
+        }
+
+        // Fresh planes with a disturbance, stepped without beginSequence().
+        float[] old = flat.newPlane();
+        float[] here = flat.newPlane();
+        fillSpot(flat, old, 8, 8);
+        fillSpot(flat, here, 8, 8);
+        float[] expected = flat.newPlane();
+        float[] actual = flat.newPlane();
+        flat.step(old, here, expected, DIFF);
+        tiled.step(old, here, actual, DIFF);
+        assertSameFrame(flat, expected, actual, "first step");
+        assertEquals(tiled.getTileCount(), tiled.getActiveTiles());
+    }
+}